@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.benchmark;
+
+import net.caseif.flint.common.arena.CommonArena;
+import net.caseif.flint.common.minigame.CommonMinigame;
+import net.caseif.flint.lobby.type.ChallengerListingLobbySign;
+import net.caseif.flint.lobby.type.StatusLobbySign;
+import net.caseif.flint.util.physical.Boundary;
+import net.caseif.flint.util.physical.Location3D;
+
+import com.google.common.base.Optional;
+
+/**
+ * {@link CommonArena} which does not support lobby signs.
+ *
+ * @author Max Roncacé
+ */
+class BenchmarkArena extends CommonArena {
+
+    BenchmarkArena(CommonMinigame parent, String id, Location3D[] spawnPoints, Boundary boundary) {
+        super(parent, id, id, spawnPoints, boundary);
+    }
+
+    @Override
+    public Optional<StatusLobbySign> createStatusLobbySign(Location3D location) {
+        return Optional.absent();
+    }
+
+    @Override
+    public Optional<ChallengerListingLobbySign> createChallengerListingLobbySign(Location3D location, int index) {
+        return Optional.absent();
+    }
+
+}
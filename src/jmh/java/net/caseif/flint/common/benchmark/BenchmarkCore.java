@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.benchmark;
+
+import net.caseif.flint.common.CommonCore;
+import net.caseif.flint.common.component.CommonComponent;
+import net.caseif.flint.common.util.PlatformUtils;
+import net.caseif.flint.common.util.agent.chat.IChatAgent;
+import net.caseif.flint.minigame.Minigame;
+
+import java.io.File;
+
+/**
+ * Headless {@link CommonCore} which stores data in a temporary directory and
+ * discards all log output below the warning level.
+ *
+ * @author Max Roncacé
+ */
+class BenchmarkCore extends CommonCore {
+
+    BenchmarkCore(final File dataFolder) {
+        INSTANCE = this;
+        PLATFORM_UTILS = new PlatformUtils() {
+            @Override
+            public File getDataFolder() {
+                return dataFolder;
+            }
+
+            @Override
+            public File getDataFolder(Minigame minigame) {
+                return new File(dataFolder, minigame.getPlugin());
+            }
+        };
+        initializeCommon();
+    }
+
+    protected String getImplementationName0() {
+        return "FlintCommon Benchmarks";
+    }
+
+    @Override
+    protected void logInfo0(String message) {
+    }
+
+    @Override
+    protected void logWarning0(String message) {
+        System.err.println("[WARNING] " + message);
+    }
+
+    @Override
+    protected void logSevere0(String message) {
+        System.err.println("[SEVERE] " + message);
+    }
+
+    @Override
+    protected void logVerbose0(String message) {
+    }
+
+    @Override
+    protected void orphan0(CommonComponent<?> component) {
+        component.setOrphanFlag();
+    }
+
+    @Override
+    protected IChatAgent getChatAgent0() {
+        return null;
+    }
+
+}
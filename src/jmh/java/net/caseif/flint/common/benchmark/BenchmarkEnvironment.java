@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.benchmark;
+
+import net.caseif.flint.arena.Arena;
+import net.caseif.flint.common.arena.CommonArena;
+import net.caseif.flint.common.util.agent.rollback.IRollbackAgent;
+import net.caseif.flint.common.util.agent.rollback.RollbackStoreType;
+import net.caseif.flint.common.util.factory.FactoryRegistry;
+import net.caseif.flint.common.util.factory.IRollbackAgentFactory;
+import net.caseif.flint.util.physical.Boundary;
+import net.caseif.flint.util.physical.Location3D;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Sets up the headless Flint environment shared by all benchmarks within a
+ * JVM.
+ *
+ * @author Max Roncacé
+ */
+final class BenchmarkEnvironment {
+
+    static final String WORLD = "world";
+
+    private static File dataFolder;
+    private static BenchmarkMinigame minigame;
+    private static int nextArena;
+
+    private BenchmarkEnvironment() {
+    }
+
+    private static synchronized BenchmarkMinigame getMinigame() throws IOException {
+        if (minigame == null) {
+            dataFolder = Files.createTempDirectory("flint-jmh").toFile();
+            new BenchmarkCore(dataFolder);
+            FactoryRegistry.registerFactory(IRollbackAgent.class, new IRollbackAgentFactory() {
+                @Override
+                public IRollbackAgent createRollbackAgent(Arena arena) {
+                    return new BenchmarkRollbackAgent((CommonArena) arena);
+                }
+            });
+
+            minigame = new BenchmarkMinigame("flint-benchmark");
+            File minigameFolder = new File(dataFolder, minigame.getPlugin());
+            if (!new File(minigameFolder, "flint_data").mkdirs()) {
+                throw new IOException("Failed to create benchmark data folder " + minigameFolder.getPath());
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    minigame.shutdown();
+                    delete(dataFolder);
+                }
+            });
+        }
+        return minigame;
+    }
+
+    /**
+     * Creates a new arena spanning the given number of blocks in each
+     * direction from the origin, backed by the given type of rollback store.
+     *
+     * @param storeType The type of rollback store to back the arena
+     * @param radius The horizontal radius of the arena
+     * @return The rollback agent of the new arena
+     * @throws IOException If an exception occurs while preparing the store
+     */
+    static synchronized BenchmarkRollbackAgent createAgent(RollbackStoreType storeType, int radius)
+            throws IOException {
+        BenchmarkArena arena = new BenchmarkArena(getMinigame(), "arena" + nextArena++,
+                new Location3D[] {new Location3D(WORLD, 0, 64, 0)},
+                new Boundary(new Location3D(WORLD, -radius, 0, -radius), new Location3D(WORLD, radius, 255, radius)));
+        arena.setRollbackStoreType(storeType);
+        BenchmarkRollbackAgent agent = (BenchmarkRollbackAgent) arena.getRollbackAgent();
+        agent.createRollbackDatabase();
+        return agent;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.benchmark;
+
+import net.caseif.flint.common.arena.CommonArena;
+import net.caseif.flint.common.util.agent.rollback.CommonRollbackAgent;
+import net.caseif.flint.common.util.agent.rollback.RollbackRecord;
+import net.caseif.flint.common.util.agent.rollback.RollbackRecordBatch;
+import net.caseif.flint.util.physical.Boundary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CommonRollbackAgent} whose platform hooks only tally the records
+ * passed to them, so that benchmarks measure Flint's own overhead.
+ *
+ * <p>Tasks which would normally be delayed until the next tick are queued
+ * until {@link #runDelayed()} is invoked.</p>
+ *
+ * @author Max Roncacé
+ */
+class BenchmarkRollbackAgent extends CommonRollbackAgent {
+
+    private final List<Runnable> delayed = new ArrayList<>();
+
+    private long restored;
+
+    BenchmarkRollbackAgent(CommonArena arena) {
+        super(arena);
+    }
+
+    /**
+     * Returns the number of records which have been rolled back by this
+     * agent.
+     *
+     * @return The number of records which have been rolled back
+     */
+    long getRestored() {
+        return restored;
+    }
+
+    /**
+     * Runs all delayed tasks, including any which are delayed by them in
+     * turn.
+     */
+    void runDelayed() {
+        while (!delayed.isEmpty()) {
+            List<Runnable> tasks = new ArrayList<>(delayed);
+            delayed.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    @Override
+    public void rollbackBlock(RollbackRecord record) {
+        restored++;
+    }
+
+    @Override
+    public void rollbackBlock(RollbackRecordBatch batch, int index) {
+        restored++;
+    }
+
+    @Override
+    public void rollbackEntityChange(RollbackRecord record) {
+        restored++;
+    }
+
+    @Override
+    public void rollbackEntityCreation(RollbackRecord record) {
+        restored++;
+    }
+
+    @Override
+    public void cacheEntities() {
+    }
+
+    @Override
+    protected byte[] captureChunk(String world, int chunkX, int chunkZ, Boundary bounds) {
+        return new byte[0];
+    }
+
+    @Override
+    protected void restoreChunk(String world, int chunkX, int chunkZ, Boundary bounds, byte[] data) {
+        restored++;
+    }
+
+    @Override
+    protected void delay(Runnable runnable) {
+        delayed.add(runnable);
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.benchmark;
+
+import net.caseif.flint.common.util.agent.rollback.RollbackRecord;
+import net.caseif.flint.common.util.agent.rollback.RollbackStoreType;
+import net.caseif.flint.util.physical.Location3D;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of
+ * {@link net.caseif.flint.common.util.agent.rollback.IRollbackAgent#logChange(RollbackRecord)}
+ * for each type of record. Every invocation pertains to a distinct block or
+ * entity, so that no record is discarded by the rollback index.
+ *
+ * @author Max Roncacé
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogChangeBenchmark {
+
+    private static final int RADIUS = 512;
+    private static final int WIDTH = RADIUS * 2;
+
+    private static final String ENTITY_STATE = "{\"type\":\"PIG\",\"health\":10.0,\"saddled\":false}";
+
+    @Param({"SQLITE", "MAPPED", "MEMORY"})
+    public RollbackStoreType storeType;
+
+    private BenchmarkRollbackAgent agent;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        agent = BenchmarkEnvironment.createAgent(storeType, RADIUS);
+    }
+
+    @TearDown(Level.Iteration)
+    public void rollback() throws IOException, SQLException {
+        agent.popRollbacks();
+        agent.runDelayed();
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        agent.close();
+    }
+
+    @Benchmark
+    public void logBlockChange() throws IOException, SQLException {
+        int n = next++;
+        agent.logChange(RollbackRecord.createBlockRecord(-1, new Location3D(BenchmarkEnvironment.WORLD,
+                n % WIDTH - RADIUS, n / (WIDTH * WIDTH) % 256, n / WIDTH % WIDTH - RADIUS), "STONE", 0, null));
+    }
+
+    @Benchmark
+    public void logEntityCreation() throws IOException, SQLException {
+        agent.logChange(RollbackRecord.createEntityCreationRecord(-1, new UUID(0, next++),
+                BenchmarkEnvironment.WORLD));
+    }
+
+    @Benchmark
+    public void logEntityChange() throws IOException, SQLException {
+        agent.logChange(RollbackRecord.createEntityChangeRecord(-1, new UUID(1, next++),
+                new Location3D(BenchmarkEnvironment.WORLD, 0, 64, 0), "PIG", ENTITY_STATE));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.benchmark;
+
+import net.caseif.flint.common.util.agent.rollback.RollbackRecord;
+import net.caseif.flint.common.util.agent.rollback.RollbackStoreType;
+import net.caseif.flint.util.physical.Location3D;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken by
+ * {@link net.caseif.flint.common.util.agent.rollback.IRollbackAgent#popRollbacks()}
+ * to restore a given number of records, including the entity changes which
+ * are delayed until the next tick.
+ *
+ * <p>Roughly one in a hundred blocks carries a state serial, and one in a
+ * hundred records pertains to an entity creation or change respectively.</p>
+ *
+ * @author Max Roncacé
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PopRollbacksBenchmark {
+
+    private static final int RADIUS = 512;
+    private static final int WIDTH = RADIUS * 2;
+
+    @Param({"SQLITE", "MAPPED", "MEMORY"})
+    public RollbackStoreType storeType;
+
+    @Param({"1000", "10000", "100000"})
+    public int recordCount;
+
+    private BenchmarkRollbackAgent agent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        agent = BenchmarkEnvironment.createAgent(storeType, RADIUS);
+    }
+
+    @Setup(Level.Iteration)
+    public void populate() throws IOException, SQLException {
+        for (int n = 0; n < recordCount; n++) {
+            RollbackRecord record;
+            switch (n % 100) {
+                case 0:
+                    record = RollbackRecord.createEntityCreationRecord(-1, new UUID(0, n), BenchmarkEnvironment.WORLD);
+                    break;
+                case 1:
+                    record = RollbackRecord.createEntityChangeRecord(-1, new UUID(1, n),
+                            new Location3D(BenchmarkEnvironment.WORLD, 0, 64, 0), "PIG", "{\"health\":10.0}");
+                    break;
+                default:
+                    record = RollbackRecord.createBlockRecord(-1, new Location3D(BenchmarkEnvironment.WORLD,
+                            n % WIDTH - RADIUS, n / (WIDTH * WIDTH) % 256, n / WIDTH % WIDTH - RADIUS), "CHEST", 2,
+                            n % 100 == 2 ? "{\"items\":[{\"slot\":" + n % 27 + ",\"id\":\"STONE\"}]}" : null);
+                    break;
+            }
+            agent.logChange(record);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        agent.close();
+    }
+
+    @Benchmark
+    public long popRollbacks() throws IOException, SQLException {
+        agent.popRollbacks();
+        agent.runDelayed();
+        return agent.getRestored();
+    }
+
+}
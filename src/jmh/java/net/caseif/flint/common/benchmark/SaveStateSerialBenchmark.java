@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.benchmark;
+
+import net.caseif.flint.common.util.agent.rollback.RollbackStoreType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of
+ * {@link net.caseif.flint.common.util.agent.rollback.IRollbackAgent#saveStateSerial(int, String)}
+ * against the number of state serials already held by the store. The store is
+ * refilled to the given size before each iteration.
+ *
+ * @author Max Roncacé
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveStateSerialBenchmark {
+
+    @Param({"SQLITE", "MAPPED", "MEMORY"})
+    public RollbackStoreType storeType;
+
+    @Param({"0", "1000", "10000"})
+    public int stateCount;
+
+    private BenchmarkRollbackAgent agent;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        agent = BenchmarkEnvironment.createAgent(storeType, 16);
+    }
+
+    @Setup(Level.Iteration)
+    public void populate() throws IOException {
+        agent.clearStateStore();
+        for (nextId = 1; nextId <= stateCount; nextId++) {
+            agent.saveStateSerial(nextId, createSerial(nextId));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        agent.close();
+    }
+
+    @Benchmark
+    public void saveStateSerial() throws IOException {
+        int id = nextId++;
+        agent.saveStateSerial(id, createSerial(id));
+    }
+
+    // approximates the serial of a partially filled chest
+    private static String createSerial(int id) {
+        StringBuilder sb = new StringBuilder("{\"type\":\"CHEST\",\"items\":[");
+        for (int slot = 0; slot < 27; slot += 3) {
+            sb.append("{\"slot\":").append(slot).append(",\"id\":\"STONE\",\"count\":").append((id + slot) % 64 + 1)
+                    .append("},");
+        }
+        return sb.append("]}").toString();
+    }
+
+}
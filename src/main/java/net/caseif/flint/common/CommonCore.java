@@ -35,6 +35,7 @@ import net.caseif.flint.common.util.agent.chat.IChatAgent;
 import net.caseif.flint.common.util.builder.BuilderRegistry;
 import net.caseif.flint.common.util.factory.FactoryRegistry;
 import net.caseif.flint.common.util.factory.IMinigameFactory;
+import net.caseif.flint.common.util.metrics.MetricRegistry;
 import net.caseif.flint.lobby.populator.LobbySignPopulator;
 import net.caseif.flint.minigame.Minigame;
 
@@ -43,6 +44,8 @@ import com.google.common.base.Optional;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Implements {@link FlintCore}.
@@ -53,6 +56,11 @@ public abstract class CommonCore extends FlintCore {
 
     private static Map<String, Minigame> minigames = new HashMap<>();
 
+    private static final MetricRegistry METRICS = new MetricRegistry();
+
+    // all challengers in any round, which may be looked up from async event handlers (e.g. chat)
+    private static final ConcurrentMap<UUID, Challenger> CHALLENGERS = new ConcurrentHashMap<>();
+
     /**
      * The singleton {@link PlatformUtils} instance.
      */
@@ -97,12 +105,41 @@ public abstract class CommonCore extends FlintCore {
      * @return The {@link Challenger} with the given {@link UUID}
      */
     public static Optional<Challenger> getChallenger(UUID uuid) {
-        for (Minigame mg : getMinigames().values()) {
-            if (mg.getChallenger(uuid).isPresent()) {
-                return mg.getChallenger(uuid);
-            }
-        }
-        return Optional.absent();
+        return Optional.fromNullable(CHALLENGERS.get(uuid));
+    }
+
+    /**
+     * Adds the given {@link Challenger} to the global index queried by
+     * {@link #getChallenger(UUID)}. This is invoked automatically when a
+     * challenger is put into a round's challenger map.
+     *
+     * @param uuid The {@link UUID} of the {@link Challenger}
+     * @param challenger The {@link Challenger} to register
+     */
+    public static void registerChallenger(UUID uuid, Challenger challenger) {
+        CHALLENGERS.put(uuid, challenger);
+    }
+
+    /**
+     * Removes the given {@link Challenger} from the global index queried by
+     * {@link #getChallenger(UUID)}, if it is still registered under the given
+     * {@link UUID}.
+     *
+     * @param uuid The {@link UUID} of the {@link Challenger}
+     * @param challenger The {@link Challenger} to unregister
+     */
+    public static void unregisterChallenger(UUID uuid, Challenger challenger) {
+        CHALLENGERS.remove(uuid, challenger);
+    }
+
+    /**
+     * Returns the {@link MetricRegistry} holding the metrics maintained by
+     * Flint, e.g. for export by the platform.
+     *
+     * @return The {@link MetricRegistry} holding Flint's metrics
+     */
+    public static MetricRegistry getMetrics() {
+        return METRICS;
     }
 
     /**
@@ -38,7 +38,10 @@ import net.caseif.flint.common.lobby.CommonLobbySign;
 import net.caseif.flint.common.metadata.CommonMetadata;
 import net.caseif.flint.common.metadata.persist.CommonPersistentMetadataHolder;
 import net.caseif.flint.common.minigame.CommonMinigame;
+import net.caseif.flint.common.util.agent.rollback.ActiveArenaIndex;
 import net.caseif.flint.common.util.agent.rollback.IRollbackAgent;
+import net.caseif.flint.common.util.agent.rollback.RollbackProgress;
+import net.caseif.flint.common.util.agent.rollback.RollbackStoreType;
 import net.caseif.flint.common.util.factory.FactoryRegistry;
 import net.caseif.flint.common.util.factory.IArenaFactory;
 import net.caseif.flint.common.util.factory.IRollbackAgentFactory;
@@ -91,6 +94,7 @@ public abstract class CommonArena extends CommonPersistentMetadataHolder impleme
     public static final String PERSISTENCE_BOUNDS_UPPER_KEY = "bound.upper";
     public static final String PERSISTENCE_BOUNDS_LOWER_KEY = "bound.lower";
     public static final String PERSISTENCE_METADATA_KEY = "metadata";
+    public static final String PERSISTENCE_ROLLBACK_STORE_KEY = "rollback.store";
 
     private IRollbackAgent rbHelper;
 
@@ -106,6 +110,11 @@ public abstract class CommonArena extends CommonPersistentMetadataHolder impleme
 
     private boolean orphan = false;
 
+    private int rollbackRecordBudget;
+    private long rollbackTimeBudget;
+    private boolean stageCheckpoints;
+    private boolean roundSnapshots;
+
     protected CommonArena(CommonMinigame parent, String id, String name, Location3D[] spawnPoints, Boundary boundary)
             throws IllegalArgumentException {
         assert parent != null;
@@ -208,6 +217,9 @@ public abstract class CommonArena extends CommonPersistentMetadataHolder impleme
     public void setBoundary(Boundary bound) throws OrphanedComponentException {
         checkState();
         this.boundary = bound;
+        if (getRound().isPresent()) {
+            ActiveArenaIndex.register(this);
+        }
         try {
             store();
         } catch (Exception ex) {
@@ -304,10 +316,20 @@ public abstract class CommonArena extends CommonPersistentMetadataHolder impleme
             throws IllegalArgumentException, IllegalStateException, OrphanedComponentException {
         checkState();
         Preconditions.checkState(!getRound().isPresent(), "Cannot create a round in an arena already hosting one");
+        Preconditions.checkState(!isRollingBack(), "Cannot create a round in an arena which is being rolled back");
         checkArgument(stages != null && !stages.isEmpty(), "LifecycleStage set must not be null or empty");
+        if (roundSnapshots) {
+            try {
+                getRollbackAgent().captureSnapshot();
+            } catch (IOException ex) {
+                CommonCore.logSevere("Failed to capture rollback snapshot for arena " + getId());
+                ex.printStackTrace();
+            }
+        }
         ((CommonMinigame) getMinigame()).getRoundMap()
                 .put(this, ((IRoundFactory) FactoryRegistry.getFactory(Round.class)).createRound(this, stages));
         Preconditions.checkState(getRound().isPresent(), "Cannot get created round from arena! This is a bug.");
+        ActiveArenaIndex.register(this);
         return getRound().get();
     }
 
@@ -346,6 +368,10 @@ public abstract class CommonArena extends CommonPersistentMetadataHolder impleme
     @Override
     public void rollback() throws IllegalStateException, OrphanedComponentException {
         checkState();
+        if (rollbackRecordBudget > 0 || rollbackTimeBudget > 0) {
+            rollbackIncrementally(rollbackRecordBudget, rollbackTimeBudget, null);
+            return;
+        }
         try {
             getRollbackAgent().popRollbacks();
         } catch (IOException | SQLException ex) {
@@ -353,6 +379,136 @@ public abstract class CommonArena extends CommonPersistentMetadataHolder impleme
         }
     }
 
+    /**
+     * Rolls back this arena over the course of multiple ticks, restoring at
+     * most the given number of records or spending at most the given number of
+     * milliseconds per tick. The arena will refuse to host a new round until
+     * the rollback has completed.
+     *
+     * @param maxRecords The maximum number of records to restore per tick, or
+     *     {@code 0} for no limit
+     * @param maxMillis The maximum time in milliseconds to spend restoring
+     *     records per tick, or {@code 0} for no limit
+     * @param callback A callback to be invoked once the rollback completes, or
+     *     {@code null}
+     * @return A {@link RollbackProgress} tracking the progress of the rollback
+     * @throws IllegalStateException If this arena is already being rolled back
+     * @throws OrphanedComponentException If this object is orphaned (see
+     *     {@link net.caseif.flint.component.Component} for more info)
+     */
+    public RollbackProgress rollbackIncrementally(int maxRecords, long maxMillis, Runnable callback)
+            throws IllegalStateException, OrphanedComponentException {
+        checkState();
+        try {
+            return getRollbackAgent().popRollbacksIncrementally(maxRecords, maxMillis, callback);
+        } catch (IOException | SQLException ex) {
+            throw new RuntimeException("Failed to rollback arena " + getDisplayName(), ex);
+        }
+    }
+
+    /**
+     * Returns whether this arena is currently being incrementally rolled back.
+     *
+     * @return Whether this arena is currently being rolled back
+     */
+    public boolean isRollingBack() {
+        return getRollbackAgent().isRollingBack();
+    }
+
+    /**
+     * Sets the per-tick budget applied when this arena is rolled back via
+     * {@link #rollback()}. If both limits are {@code 0}, the arena is rolled
+     * back synchronously.
+     *
+     * @param maxRecords The maximum number of records to restore per tick, or
+     *     {@code 0} for no limit
+     * @param maxMillis The maximum time in milliseconds to spend restoring
+     *     records per tick, or {@code 0} for no limit
+     */
+    public void setRollbackBudget(int maxRecords, long maxMillis) {
+        checkArgument(maxRecords >= 0 && maxMillis >= 0, "Rollback budget must be non-negative");
+        this.rollbackRecordBudget = maxRecords;
+        this.rollbackTimeBudget = maxMillis;
+    }
+
+    /**
+     * Returns whether a rollback checkpoint is created each time a round in
+     * this arena changes its lifecycle stage.
+     *
+     * @return Whether checkpoints are created on lifecycle stage changes
+     */
+    public boolean isCheckpointingStages() {
+        return stageCheckpoints;
+    }
+
+    /**
+     * Sets whether a rollback checkpoint is created each time a round in this
+     * arena changes its lifecycle stage. Checkpoints are named
+     * {@code stage:<id>} after the stage being entered and may be rolled back
+     * to via {@link IRollbackAgent#rollbackToCheckpoint(String)}.
+     *
+     * @param checkpoint Whether checkpoints should be created on lifecycle
+     *     stage changes
+     */
+    public void setCheckpointingStages(boolean checkpoint) {
+        this.stageCheckpoints = checkpoint;
+    }
+
+    /**
+     * Returns whether a snapshot of this arena is captured each time a round
+     * is created in it.
+     *
+     * @return Whether snapshots are captured on round creation
+     */
+    public boolean isSnapshottingRounds() {
+        return roundSnapshots;
+    }
+
+    /**
+     * Sets whether a snapshot of this arena is captured each time a round is
+     * created in it, allowing chunks which are heavily modified during the
+     * round to be restored wholesale when the arena is rolled back (see
+     * {@link IRollbackAgent#captureSnapshot()}). This has no effect on
+     * platforms which do not support snapshots.
+     *
+     * @param snapshot Whether snapshots should be captured on round creation
+     */
+    public void setSnapshottingRounds(boolean snapshot) {
+        this.roundSnapshots = snapshot;
+    }
+
+    /**
+     * Returns the type of {@link net.caseif.flint.common.util.agent.rollback.RollbackStore} which backs rollbacks
+     * in this arena.
+     *
+     * @return The type of rollback store used by this arena
+     */
+    public RollbackStoreType getRollbackStoreType() {
+        return getRollbackAgent().getStoreType();
+    }
+
+    /**
+     * Sets the type of {@link net.caseif.flint.common.util.agent.rollback.RollbackStore} which backs rollbacks
+     * in this arena, e.g. {@link RollbackStoreType#MEMORY} for small arenas
+     * which should never touch the disk.
+     *
+     * @param type The type of rollback store to use
+     * @throws IllegalStateException If the current store holds records which
+     *     have not yet been rolled back
+     * @throws OrphanedComponentException If this object is orphaned (see
+     *     {@link net.caseif.flint.component.Component} for more info)
+     */
+    public void setRollbackStoreType(RollbackStoreType type)
+            throws IllegalStateException, OrphanedComponentException {
+        checkState();
+        try {
+            getRollbackAgent().setStoreType(type);
+            store();
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to set rollback store for arena " + getDisplayName(), ex);
+        }
+    }
+
     /**
      * Gets the {@link IRollbackAgent} associated with this {@link CommonArena}.
      *
@@ -432,6 +588,18 @@ public abstract class CommonArena extends CommonPersistentMetadataHolder impleme
         if (json.has(PERSISTENCE_METADATA_KEY) && json.get(PERSISTENCE_METADATA_KEY).isJsonObject()) {
             JsonSerializer.deserializeMetadata(json.getAsJsonObject(PERSISTENCE_METADATA_KEY), getPersistentMetadata());
         }
+
+        if (json.has(PERSISTENCE_ROLLBACK_STORE_KEY)) {
+            try {
+                getRollbackAgent().setStoreType(
+                        RollbackStoreType.valueOf(json.get(PERSISTENCE_ROLLBACK_STORE_KEY).getAsString()));
+            } catch (IllegalArgumentException ex) {
+                CommonCore.logWarning("Invalid rollback store type for arena \"" + getId() + "\" - using default");
+            } catch (IllegalStateException | IOException ex) {
+                CommonCore.logWarning("Failed to set rollback store type for arena \"" + getId() + "\"");
+                ex.printStackTrace();
+            }
+        }
     }
 
     /**
@@ -464,6 +632,8 @@ public abstract class CommonArena extends CommonPersistentMetadataHolder impleme
         JsonSerializer.serializeMetadata(metadata, getPersistentMetadata());
         jsonArena.add(PERSISTENCE_METADATA_KEY, metadata);
 
+        jsonArena.addProperty(PERSISTENCE_ROLLBACK_STORE_KEY, getRollbackAgent().getStoreType().name());
+
         json.add(this.getId(), jsonArena);
 
         try (FileWriter writer = new FileWriter(arenaStore)) {
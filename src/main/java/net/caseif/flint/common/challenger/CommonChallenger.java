@@ -125,6 +125,7 @@ public abstract class CommonChallenger extends CommonMetadataHolder implements C
         checkState();
         if (this.spectating != spectating) {
             this.spectating = spectating;
+            round.updateSpectator(this);
         }
     }
 
@@ -145,6 +146,7 @@ public abstract class CommonChallenger extends CommonMetadataHolder implements C
 
     @Override
     public void orphan() {
+        CommonCore.unregisterChallenger(uuid, this);
         CommonCore.orphan(this);
     }
 
@@ -32,6 +32,12 @@ import net.caseif.flint.challenger.Challenger;
 import net.caseif.flint.common.CommonCore;
 import net.caseif.flint.common.arena.CommonArena;
 import net.caseif.flint.common.event.FlintSubscriberExceptionHandler;
+import net.caseif.flint.common.util.SnapshotMap;
+import net.caseif.flint.common.util.agent.rollback.ActiveArenaIndex;
+import net.caseif.flint.common.util.agent.rollback.CommonRollbackAgent;
+import net.caseif.flint.common.util.agent.rollback.RollbackCompactor;
+import net.caseif.flint.common.util.agent.rollback.RollbackConnectionHolder;
+import net.caseif.flint.common.util.agent.rollback.RollbackWriter;
 import net.caseif.flint.common.util.builder.BuilderRegistry;
 import net.caseif.flint.common.util.factory.FactoryRegistry;
 import net.caseif.flint.common.util.factory.IArenaFactory;
@@ -48,7 +54,6 @@ import net.caseif.flint.util.physical.Boundary;
 import net.caseif.flint.util.physical.Location3D;
 
 import com.google.common.base.Optional;
-import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
@@ -58,6 +63,7 @@ import com.google.gson.JsonObject;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -74,8 +80,13 @@ public abstract class CommonMinigame implements Minigame {
     private EventBus eventBus;
 
     private final Map<ConfigNode<?>, Object> config = new HashMap<>();
-    private final BiMap<String, Arena> arenas = HashBiMap.create();
-    private final BiMap<Arena, Round> rounds = HashBiMap.create(); // guarantees values aren't duplicated
+    private final SnapshotMap<String, Arena> arenas = new SnapshotMap<>(HashBiMap.<String, Arena>create());
+    // guarantees values aren't duplicated
+    private final SnapshotMap<Arena, Round> rounds = new SnapshotMap<>(HashBiMap.<Arena, Round>create());
+
+    // the challenger lists of each round at the time the snapshot was built
+    private ImmutableList<ImmutableList<Challenger>> challengerSources = ImmutableList.of();
+    private ImmutableList<Challenger> challengerSnapshot = ImmutableList.of();
 
     protected CommonMinigame() {
         // this is more complicated than it could be in order to prevent the JVM
@@ -111,7 +122,7 @@ public abstract class CommonMinigame implements Minigame {
 
     @Override
     public ImmutableList<Arena> getArenas() {
-        return ImmutableList.copyOf(arenas.values());
+        return arenas.getValueSnapshot();
     }
 
     @Override
@@ -167,6 +178,13 @@ public abstract class CommonMinigame implements Minigame {
             CommonCore.logSevere("Failed to remove arena with ID " + arena.getId() + " from persistent store");
             ex.printStackTrace();
         }
+        try {
+            ((CommonArena) arena).getRollbackAgent().delete();
+        } catch (IOException ex) {
+            CommonCore.logSevere("Failed to delete rollback data for arena " + arena.getId());
+            ex.printStackTrace();
+        }
+        CommonCore.getMetrics().removeAll(CommonRollbackAgent.getMetricPrefix(arena));
         ((CommonArena) arena).orphan();
     }
 
@@ -217,6 +235,23 @@ public abstract class CommonMinigame implements Minigame {
         } catch (IOException ex) {
             throw new RuntimeException("Failed to load existing arenas from disk", ex);
         }
+
+        recoverRollbacks();
+    }
+
+    /**
+     * Rolls back any arenas which were left with unrestored changes, e.g.
+     * because the server halted during a round.
+     */
+    private void recoverRollbacks() {
+        for (Arena arena : getArenas()) {
+            try {
+                ((CommonArena) arena).getRollbackAgent().recover();
+            } catch (IOException ex) {
+                CommonCore.logSevere("Failed to recover rollback of arena " + arena.getId());
+                ex.printStackTrace();
+            }
+        }
     }
 
     public void loadLobbySigns() {
@@ -303,26 +338,47 @@ public abstract class CommonMinigame implements Minigame {
 
     @Override
     public ImmutableList<Round> getRounds() {
-        return ImmutableList.copyOf(rounds.values());
+        return rounds.getValueSnapshot();
     }
 
     @Override
     public ImmutableList<Challenger> getChallengers() {
+        ImmutableList<Round> current = getRounds();
+        if (isChallengerSnapshotCurrent(current)) {
+            return challengerSnapshot;
+        }
+        ImmutableList.Builder<ImmutableList<Challenger>> sources = ImmutableList.builder();
         ImmutableList.Builder<Challenger> builder = ImmutableList.builder();
-        for (Round r : getRounds()) { // >tfw no streams
-            builder.addAll(r.getChallengers());
+        for (Round r : current) { // >tfw no streams
+            ImmutableList<Challenger> challengers = r.getChallengers();
+            sources.add(challengers);
+            builder.addAll(challengers);
         }
-        return builder.build();
+        challengerSources = sources.build();
+        challengerSnapshot = builder.build();
+        return challengerSnapshot;
     }
 
-    @Override
-    public Optional<Challenger> getChallenger(UUID uuid) {
-        for (Round r : getRounds()) {
-            if (r.getChallenger(uuid).isPresent()) {
-                return r.getChallenger(uuid);
+    // rounds return the same list until their challengers change, so the
+    // aggregate snapshot is current as long as every list is the same instance
+    private boolean isChallengerSnapshotCurrent(ImmutableList<Round> current) {
+        if (current.size() != challengerSources.size()) {
+            return false;
+        }
+        for (int i = 0; i < current.size(); i++) {
+            if (current.get(i).getChallengers() != challengerSources.get(i)) {
+                return false;
             }
         }
-        return Optional.absent();
+        return true;
+    }
+
+    @Override
+    public Optional<Challenger> getChallenger(UUID uuid) {
+        Optional<Challenger> challenger = CommonCore.getChallenger(uuid);
+        return challenger.isPresent() && challenger.get().getRound().getArena().getMinigame() == this
+                ? challenger
+                : Optional.<Challenger>absent();
     }
 
     @Override
@@ -330,6 +386,28 @@ public abstract class CommonMinigame implements Minigame {
         return BuilderRegistry.instance().createBuilder(type, this);
     }
 
+    /**
+     * Releases resources held by this {@link CommonMinigame}, flushing any
+     * rollback records which have yet to be written to disk.
+     *
+     * <p>This should be invoked by the platform when the plugin owning this
+     * minigame is disabled.</p>
+     */
+    public void shutdown() {
+        RollbackCompactor.cancel(this);
+        for (Arena arena : getArenas()) {
+            ActiveArenaIndex.unregister(arena);
+            try {
+                ((CommonArena) arena).getRollbackAgent().close();
+            } catch (IOException | SQLException ex) {
+                CommonCore.logSevere("Failed to flush rollback records for arena " + arena.getId());
+                ex.printStackTrace();
+            }
+        }
+        RollbackWriter.release(this);
+        RollbackConnectionHolder.release(this);
+    }
+
     // everything below this line is (are?) internal utility methods
 
     public Map<ConfigNode<?>, Object> getConfigMap() {
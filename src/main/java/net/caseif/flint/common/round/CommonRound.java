@@ -43,6 +43,8 @@ import net.caseif.flint.common.event.round.CommonRoundTimerStopEvent;
 import net.caseif.flint.common.exception.round.CommonRoundJoinException;
 import net.caseif.flint.common.metadata.CommonMetadataHolder;
 import net.caseif.flint.common.minigame.CommonMinigame;
+import net.caseif.flint.common.util.SnapshotMap;
+import net.caseif.flint.common.util.agent.rollback.ActiveArenaIndex;
 import net.caseif.flint.component.exception.OrphanedComponentException;
 import net.caseif.flint.config.ConfigNode;
 import net.caseif.flint.config.RoundConfigNode;
@@ -54,17 +56,15 @@ import net.caseif.flint.round.Round;
 import net.caseif.flint.util.physical.Location3D;
 
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -82,10 +82,13 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
 
     private final CommonArena arena;
 
-    private final BiMap<UUID, Challenger> challengers = HashBiMap.create();
-    private final BiMap<String, Team> teams = HashBiMap.create();
+    private final ChallengerMap challengers = new ChallengerMap();
+    private final SnapshotMap<UUID, Challenger> spectators = new SnapshotMap<>(new LinkedHashMap<UUID, Challenger>());
+    private final SnapshotMap<String, Team> teams = new SnapshotMap<>(HashBiMap.<String, Team>create());
     private final HashMap<RoundConfigNode<?>, Object> config = new HashMap<>();
     private final ImmutableSet<LifecycleStage> stages;
+    private final LifecycleStage[] stageArray;
+    private final ImmutableMap<String, Integer> stageIndices; // stage IDs to indices in stageArray
 
     protected boolean orphan = false;
 
@@ -94,11 +97,21 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
     private long time;
     private boolean timerTicking = true;
 
+    CommonRoundScheduler.Entry schedulerEntry;
+
     public CommonRound(CommonArena arena, ImmutableSet<LifecycleStage> stages) {
         assert arena != null;
         assert stages != null;
         this.arena = arena;
         this.stages = stages;
+        this.stageArray = stages.toArray(new LifecycleStage[stages.size()]);
+        Map<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < stageArray.length; i++) {
+            if (!indices.containsKey(stageArray[i].getId())) {
+                indices.put(stageArray[i].getId(), i);
+            }
+        }
+        this.stageIndices = ImmutableMap.copyOf(indices);
     }
 
     @Override
@@ -120,7 +133,7 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
     @Override
     public ImmutableList<Challenger> getChallengers() {
         checkState();
-        return ImmutableList.copyOf(challengers.values());
+        return challengers.getValueSnapshot();
     }
 
     @Override
@@ -240,7 +253,7 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
     @Override
     public ImmutableList<Team> getTeams() throws OrphanedComponentException {
         checkState();
-        return ImmutableList.copyOf(teams.values());
+        return teams.getValueSnapshot();
     }
 
     @Override
@@ -290,13 +303,22 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
     @Override
     public ImmutableList<Challenger> getSpectators() throws OrphanedComponentException {
         checkState();
-        // I really wish I could use streams right now
-        return ImmutableList.copyOf(Collections2.filter(getChallengers(), new Predicate<Challenger>() {
-            @Override
-            public boolean apply(Challenger challenger) {
-                return challenger.isSpectating();
-            }
-        }));
+        return spectators.getValueSnapshot();
+    }
+
+    /**
+     * Updates the spectators of this {@link CommonRound} to reflect whether the
+     * given {@link Challenger} is currently spectating.
+     *
+     * @param challenger The {@link Challenger} whose spectating state changed
+     */
+    public void updateSpectator(Challenger challenger) {
+        UUID uuid = challenger.getUniqueId();
+        if (challenger.isSpectating() && challengers.get(uuid) == challenger) {
+            spectators.put(uuid, challenger);
+        } else if (spectators.get(uuid) == challenger) {
+            spectators.remove(uuid);
+        }
     }
 
     @Override
@@ -308,27 +330,29 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
     @Override
     public LifecycleStage getLifecycleStage() throws OrphanedComponentException {
         checkState();
-        return (LifecycleStage)getLifecycleStages().toArray()[currentStage];
+        return stageArray[currentStage];
     }
 
     @Override
     public void setLifecycleStage(LifecycleStage stage, boolean resetTimer) throws IllegalArgumentException,
             OrphanedComponentException {
         checkState();
-        if (stages.contains(stage)) {
-            if (!stage.equals(getLifecycleStage())) {
-                Iterator<LifecycleStage> iterator = stages.iterator();
-                int i = 0;
-                while (iterator.hasNext()) {
-                    if (iterator.next().equals(stage)) {
-                        break;
-                    }
-                    i++;
-                }
-                currentStage = i;
+        Integer index = stage != null ? stageIndices.get(stage.getId()) : null;
+        if (index != null && stageArray[index].equals(stage)) {
+            if (index != currentStage) {
+                currentStage = index;
                 if (resetTimer) {
                     time = 0;
                 }
+                CommonRoundScheduler.reschedule(this);
+                if (arena.isCheckpointingStages()) {
+                    try {
+                        arena.getRollbackAgent().createCheckpoint("stage:" + stage.getId());
+                    } catch (IOException ex) {
+                        CommonCore.logSevere("Failed to create rollback checkpoint for arena " + getArena().getId());
+                        ex.printStackTrace();
+                    }
+                }
                 getArena().getMinigame().getEventBus()
                         .post(new CommonRoundChangeLifecycleStageEvent(this, getLifecycleStage(), stage));
             }
@@ -345,29 +369,25 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
     @Override
     public Optional<LifecycleStage> getLifecycleStage(String id) throws OrphanedComponentException {
         checkState();
-        for (LifecycleStage stage : stages) {
-            if (stage.getId().equals(id)) {
-                return Optional.of(stage);
-            }
-        }
-        return Optional.absent();
+        Integer index = stageIndices.get(id);
+        return index != null ? Optional.of(stageArray[index]) : Optional.<LifecycleStage>absent();
     }
 
     @Override
     public LifecycleStage getLifecycleStage(int index) throws OrphanedComponentException {
         checkState();
-        if (index >= stages.size()) {
+        if (index >= stageArray.length) {
             throw new IndexOutOfBoundsException();
         }
-        return stages.asList().get(index);
+        return stageArray[index];
     }
 
     @Override
     public Optional<LifecycleStage> getNextLifecycleStage() throws OrphanedComponentException {
         checkState();
         return Optional.fromNullable(
-                currentStage < stages.size() - 1
-                        ? (LifecycleStage) getLifecycleStages().toArray()[currentStage + 1]
+                currentStage < stageArray.length - 1
+                        ? stageArray[currentStage + 1]
                         : null
         );
     }
@@ -405,6 +425,7 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
     public void setTime(long time, boolean callEvent) throws OrphanedComponentException {
         checkState();
         this.time = time;
+        CommonRoundScheduler.reschedule(this);
         if (callEvent) {
             getArena().getMinigame().getEventBus().post(new CommonRoundTimerChangeEvent(this, this.getTime(), time));
         }
@@ -447,6 +468,7 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
         checkState();
         if (ticking != isTimerTicking()) {
             timerTicking = ticking;
+            CommonRoundScheduler.reschedule(this);
             getArena().getMinigame().getEventBus()
                     .post(ticking ? new CommonRoundTimerStartEvent(this) : new CommonRoundTimerStopEvent(this));
         }
@@ -458,6 +480,7 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
             throw new IllegalStateException("Cannot invoke end() on a round more than once");
         }
         ending = true;
+        CommonRoundScheduler.unschedule(this);
         cancelTimerTask();
 
         for (Challenger challenger : getChallengers()) {
@@ -478,6 +501,7 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
         }
 
         ((CommonMinigame) getArena().getMinigame()).getRoundMap().remove(getArena());
+        ActiveArenaIndex.unregister(getArena());
 
         for (LobbySign ls : getArena().getLobbySigns()) {
             ls.update();
@@ -517,6 +541,53 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
         return teams;
     }
 
+    /**
+     * Map of the challengers in a round which keeps the global index queried
+     * by {@link CommonCore#getChallenger(UUID)} and the round's spectators up
+     * to date.
+     */
+    private class ChallengerMap extends SnapshotMap<UUID, Challenger> {
+
+        private ChallengerMap() {
+            super(new HashMap<UUID, Challenger>());
+        }
+
+        @Override
+        public Challenger put(UUID uuid, Challenger challenger) {
+            checkNotNull(challenger, "challenger");
+            Challenger prev = super.put(uuid, challenger);
+            if (prev != null) {
+                CommonCore.unregisterChallenger(uuid, prev);
+                spectators.remove(uuid);
+            }
+            CommonCore.registerChallenger(uuid, challenger);
+            if (challenger.isSpectating()) {
+                spectators.put(uuid, challenger);
+            }
+            return prev;
+        }
+
+        @Override
+        public Challenger remove(Object uuid) {
+            Challenger prev = super.remove(uuid);
+            if (prev != null) {
+                CommonCore.unregisterChallenger((UUID) uuid, prev);
+                spectators.remove(uuid);
+            }
+            return prev;
+        }
+
+        @Override
+        public void clear() {
+            for (Map.Entry<UUID, Challenger> entry : entrySet()) {
+                CommonCore.unregisterChallenger(entry.getKey(), entry.getValue());
+            }
+            super.clear();
+            spectators.clear();
+        }
+
+    }
+
     @Override
     public void checkState() throws OrphanedComponentException {
         if (orphan) {
@@ -524,7 +595,16 @@ public abstract class CommonRound extends CommonMetadataHolder implements Round,
         }
     }
 
-    protected abstract void cancelTimerTask();
+    /**
+     * Cancels the platform's own timer task for this {@link CommonRound}, if
+     * it has one. Invoked when the round ends.
+     *
+     * @deprecated Platforms should run round workers through the
+     *     {@link CommonRoundScheduler}, which unschedules rounds as they end
+     */
+    @Deprecated
+    protected void cancelTimerTask() {
+    }
 
     @Override
     public void orphan() {
@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.round;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import net.caseif.flint.common.CommonCore;
+import net.caseif.flint.round.Round;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Drives the timers of all {@link Round}s from a single task, rather than
+ * each round scheduling its own.
+ *
+ * <p>Platforms should {@link #schedule(CommonRoundWorker) schedule} the worker
+ * of each round as it is created and invoke {@link #tick()} once per second
+ * from a single repeating task on the main thread.</p>
+ *
+ * <p>Lifecycle stage deadlines are kept in a hashed timer wheel, so a round is
+ * only checked for a stage change on the tick its current stage expires.
+ * Rounds whose timers are not ticking have no deadline and are skipped by the
+ * timer entirely.</p>
+ *
+ * @author Max Roncacé
+ */
+public final class CommonRoundScheduler {
+
+    /**
+     * The number of buckets in the timer wheel. This must be a power of two.
+     */
+    public static final int WHEEL_SIZE = 64;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final Entry[] WHEEL = new Entry[WHEEL_SIZE];
+    private static final Set<Entry> ENTRIES = new LinkedHashSet<>();
+
+    private static long currentTick;
+
+    private CommonRoundScheduler() {
+    }
+
+    /**
+     * Schedules the given {@link CommonRoundWorker} to be run on each
+     * subsequent {@link #tick()}.
+     *
+     * @param worker The {@link CommonRoundWorker} to schedule
+     * @throws IllegalStateException If the worker's round is already
+     *     scheduled
+     */
+    public static void schedule(CommonRoundWorker worker) throws IllegalStateException {
+        CommonRound round = worker.getRound();
+        checkState(round.schedulerEntry == null, "Round is already scheduled");
+        Entry entry = new Entry(worker);
+        round.schedulerEntry = entry;
+        ENTRIES.add(entry);
+        reschedule(round);
+    }
+
+    /**
+     * Removes the given {@link CommonRound} from the scheduler. This is a no-op
+     * if the round is not scheduled.
+     *
+     * @param round The {@link CommonRound} to unschedule
+     */
+    public static void unschedule(CommonRound round) {
+        Entry entry = round.schedulerEntry;
+        if (entry == null) {
+            return;
+        }
+        unlink(entry);
+        ENTRIES.remove(entry);
+        round.schedulerEntry = null;
+    }
+
+    /**
+     * Advances the scheduler by one tick, running the worker of each scheduled
+     * round.
+     */
+    public static void tick() {
+        long now = ++currentTick;
+        Entry entry = WHEEL[(int) (now & WHEEL_MASK)];
+        while (entry != null) {
+            Entry next = entry.next;
+            // entries hashed to this bucket may be due on a later revolution
+            if (entry.deadline == now) {
+                unlink(entry);
+                entry.deadline = -1;
+                entry.due = true;
+            }
+            entry = next;
+        }
+
+        // workers may end their rounds, which unschedules them
+        for (Entry e : ENTRIES.toArray(new Entry[ENTRIES.size()])) {
+            if (e.worker.getRound().schedulerEntry != e) {
+                continue;
+            }
+            try {
+                e.worker.run();
+            } catch (RuntimeException ex) {
+                CommonCore.logSevere("Exception occurred while ticking round");
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Recomputes the deadline of the given {@link CommonRound}'s current
+     * lifecycle stage. This must be invoked whenever its stage, time, or timer
+     * state changes.
+     *
+     * @param round The {@link CommonRound} to reschedule
+     */
+    static void reschedule(CommonRound round) {
+        Entry entry = round.schedulerEntry;
+        if (entry == null) {
+            return;
+        }
+        long deadline = -1;
+        if (round.isTimerTicking()) {
+            long duration = round.getLifecycleStage().getDuration();
+            if (duration > 0) {
+                // the worker advances the time until it reaches the duration, then switches on the following tick
+                deadline = currentTick + Math.max(duration - round.getTime(), 0) + 1;
+            }
+        }
+        if (deadline == entry.deadline) {
+            return;
+        }
+        unlink(entry);
+        entry.deadline = deadline;
+        if (deadline != -1) {
+            link(entry);
+        }
+    }
+
+    /**
+     * Returns whether the current lifecycle stage of the given
+     * {@link CommonRound} may have expired, clearing the flag set when its
+     * deadline is reached.
+     *
+     * <p>Rounds which are not scheduled are always checked.</p>
+     *
+     * @param round The {@link CommonRound} to check
+     * @return Whether the round's stage may have expired
+     */
+    static boolean pollStageDeadline(CommonRound round) {
+        Entry entry = round.schedulerEntry;
+        if (entry == null) {
+            return true;
+        }
+        boolean due = entry.due;
+        entry.due = false;
+        return due;
+    }
+
+    private static void link(Entry entry) {
+        int bucket = (int) (entry.deadline & WHEEL_MASK);
+        entry.bucket = bucket;
+        entry.prev = null;
+        entry.next = WHEEL[bucket];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        WHEEL[bucket] = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        if (entry.bucket == -1) {
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            WHEEL[entry.bucket] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.bucket = -1;
+    }
+
+    /**
+     * The scheduler's state for a single round.
+     */
+    static final class Entry {
+
+        private final CommonRoundWorker worker;
+
+        private long deadline = -1;
+        private boolean due;
+
+        private int bucket = -1;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(CommonRoundWorker worker) {
+            this.worker = worker;
+        }
+
+    }
+
+}
@@ -31,7 +31,8 @@ import net.caseif.flint.round.Round;
 import net.caseif.flint.util.physical.Boundary;
 
 /**
- * Used as the {@link Runnable} for {@link Round} timers.
+ * Used as the {@link Runnable} for {@link Round} timers, which is run each
+ * tick by the {@link CommonRoundScheduler}.
  *
  * @author Max Roncace
  */
@@ -63,7 +64,8 @@ public abstract class CommonRoundWorker implements Runnable {
     }
 
     private void handleTick() {
-        boolean stageSwitch = round.getLifecycleStage().getDuration() > 0
+        boolean stageSwitch = CommonRoundScheduler.pollStageDeadline(round)
+                && round.getLifecycleStage().getDuration() > 0
                 && round.getTime() >= round.getLifecycleStage().getDuration();
         if (stageSwitch) {
             if (round.getNextLifecycleStage().isPresent()) {
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util;
+
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link Map} which caches an immutable snapshot of its values, rebuilding
+ * it only after the map has been modified.
+ *
+ * <p>The map's views are unmodifiable, since modifications made through them
+ * would not invalidate the snapshot.</p>
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ * @author Max Roncacé
+ */
+public class SnapshotMap<K, V> extends ForwardingMap<K, V> {
+
+    private final Map<K, V> delegate;
+    private final Map<K, V> view;
+
+    private ImmutableList<V> snapshot;
+
+    public SnapshotMap(Map<K, V> delegate) {
+        this.delegate = delegate;
+        this.view = Collections.unmodifiableMap(delegate);
+    }
+
+    @Override
+    protected Map<K, V> delegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns an immutable snapshot of the values of this map. The same
+     * instance is returned until the map is next modified.
+     *
+     * @return An immutable snapshot of the values of this map
+     */
+    public ImmutableList<V> getValueSnapshot() {
+        if (snapshot == null) {
+            snapshot = ImmutableList.copyOf(delegate.values());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V prev = delegate.put(key, value);
+        snapshot = null;
+        return prev;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        standardPutAll(map);
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!delegate.containsKey(key)) {
+            return null;
+        }
+        snapshot = null;
+        return delegate.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        snapshot = null;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return view.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return view.values();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return view.entrySet();
+    }
+
+}
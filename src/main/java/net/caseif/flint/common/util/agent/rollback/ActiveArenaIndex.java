@@ -0,0 +1,238 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.arena.Arena;
+import net.caseif.flint.util.physical.Boundary;
+import net.caseif.flint.util.physical.Location3D;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A spatial index of the boundaries of all arenas currently hosting a round,
+ * used to look up the arenas affected by a change at a given location without
+ * scanning every arena of every minigame.
+ *
+ * <p>Boundaries are bucketed by world and by each 16x16 chunk column they
+ * overlap. Boundaries spanning more than {@link #MAX_INDEXED_CHUNKS} chunks
+ * (including infinite boundaries) are instead kept in a per-world list which
+ * is checked for every query.</p>
+ *
+ * <p>Buckets are immutable and replaced whenever an arena is added or
+ * removed, so that a query which matches every arena of a single bucket can
+ * return it as-is without allocating.</p>
+ *
+ * @author Max Roncacé
+ */
+public final class ActiveArenaIndex {
+
+    /**
+     * The maximum number of chunk columns a boundary may overlap before it is
+     * no longer bucketed by chunk.
+     */
+    public static final int MAX_INDEXED_CHUNKS = 1024;
+
+    // key used for boundaries which don't define a world
+    private static final String ANY_WORLD = "";
+
+    private static final Map<String, Map<Long, ImmutableList<Arena>>> CHUNKS = new HashMap<>();
+    private static final Map<String, ImmutableList<Arena>> OVERSIZED = new HashMap<>();
+    private static final Map<Arena, Registration> REGISTRATIONS = new HashMap<>();
+
+    private ActiveArenaIndex() {
+    }
+
+    /**
+     * Adds the given {@link Arena} to the index, replacing any existing entry
+     * for it (e.g. after its boundary has changed).
+     *
+     * @param arena The {@link Arena} to index
+     */
+    public static synchronized void register(Arena arena) {
+        unregister(arena);
+
+        Boundary bound = arena.getBoundary();
+        String world = bound.getLowerBound().getWorld().or(bound.getUpperBound().getWorld()).or(ANY_WORLD);
+
+        double minCx = Math.floor(bound.getLowerBound().getX() / 16);
+        double maxCx = Math.floor(bound.getUpperBound().getX() / 16);
+        double minCz = Math.floor(bound.getLowerBound().getZ() / 16);
+        double maxCz = Math.floor(bound.getUpperBound().getZ() / 16);
+
+        if ((maxCx - minCx + 1) * (maxCz - minCz + 1) > MAX_INDEXED_CHUNKS) {
+            add(OVERSIZED, world, arena);
+            REGISTRATIONS.put(arena, new Registration(world, null));
+            return;
+        }
+
+        Map<Long, ImmutableList<Arena>> worldChunks = CHUNKS.get(world);
+        if (worldChunks == null) {
+            worldChunks = new HashMap<>();
+            CHUNKS.put(world, worldChunks);
+        }
+        List<Long> keys = new ArrayList<>();
+        for (int cx = (int) minCx; cx <= (int) maxCx; cx++) {
+            for (int cz = (int) minCz; cz <= (int) maxCz; cz++) {
+                long key = pack(cx, cz);
+                add(worldChunks, key, arena);
+                keys.add(key);
+            }
+        }
+        REGISTRATIONS.put(arena, new Registration(world, keys));
+    }
+
+    /**
+     * Removes the given {@link Arena} from the index, if present.
+     *
+     * @param arena The {@link Arena} to remove
+     */
+    public static synchronized void unregister(Arena arena) {
+        Registration reg = REGISTRATIONS.remove(arena);
+        if (reg == null) {
+            return;
+        }
+
+        if (reg.chunks == null) {
+            remove(OVERSIZED, reg.world, arena);
+            return;
+        }
+
+        Map<Long, ImmutableList<Arena>> worldChunks = CHUNKS.get(reg.world);
+        for (Long key : reg.chunks) {
+            remove(worldChunks, key, arena);
+        }
+        if (worldChunks.isEmpty()) {
+            CHUNKS.remove(reg.world);
+        }
+    }
+
+    /**
+     * Returns the indexed {@link Arena}s whose boundaries contain the given
+     * {@link Location3D}.
+     *
+     * @param location The {@link Location3D} to query
+     * @return An immutable list of the indexed {@link Arena}s containing the
+     *     location
+     */
+    public static synchronized List<Arena> query(Location3D location) {
+        // an arena is indexed under a single world, and only one of its chunk buckets can match, so the buckets
+        // consulted below never share an arena
+        List<Arena> arenas = ImmutableList.of();
+        if (location.getWorld().isPresent()) {
+            arenas = collect(arenas, location.getWorld().get(), location);
+            arenas = collect(arenas, ANY_WORLD, location);
+        } else {
+            // no world to narrow the search by
+            for (String world : CHUNKS.keySet()) {
+                arenas = collect(arenas, world, location);
+            }
+            for (String world : OVERSIZED.keySet()) {
+                if (!CHUNKS.containsKey(world)) {
+                    arenas = collect(arenas, world, location);
+                }
+            }
+        }
+        return arenas;
+    }
+
+    // appends the arenas of the given world's buckets which contain the given location to the given list
+    private static List<Arena> collect(List<Arena> arenas, String world, Location3D location) {
+        Map<Long, ImmutableList<Arena>> worldChunks = CHUNKS.get(world);
+        if (worldChunks != null) {
+            arenas = filter(arenas, worldChunks.get(pack((int) Math.floor(location.getX() / 16),
+                    (int) Math.floor(location.getZ() / 16))), location);
+        }
+        if (!OVERSIZED.isEmpty()) {
+            arenas = filter(arenas, OVERSIZED.get(world), location);
+        }
+        return arenas;
+    }
+
+    // appends the arenas of the given bucket which contain the given location to the given list, returning the
+    // bucket itself if it's the only match and every arena in it contains the location
+    private static List<Arena> filter(List<Arena> arenas, ImmutableList<Arena> bucket, Location3D location) {
+        if (bucket == null) {
+            return arenas;
+        }
+        int matches = 0;
+        for (Arena arena : bucket) {
+            if (arena.getBoundary().contains(location)) {
+                matches++;
+            }
+        }
+        if (matches == 0) {
+            return arenas;
+        } else if (matches == bucket.size() && arenas.isEmpty()) {
+            return bucket;
+        }
+        ImmutableList.Builder<Arena> builder = ImmutableList.builder();
+        builder.addAll(arenas);
+        for (Arena arena : bucket) {
+            if (arena.getBoundary().contains(location)) {
+                builder.add(arena);
+            }
+        }
+        return builder.build();
+    }
+
+    private static long pack(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    private static <K> void add(Map<K, ImmutableList<Arena>> map, K key, Arena arena) {
+        ImmutableList<Arena> bucket = map.get(key);
+        map.put(key, bucket != null
+                ? ImmutableList.<Arena>builder().addAll(bucket).add(arena).build()
+                : ImmutableList.of(arena));
+    }
+
+    private static <K> void remove(Map<K, ImmutableList<Arena>> map, K key, Arena arena) {
+        List<Arena> bucket = new ArrayList<>(map.get(key));
+        bucket.remove(arena);
+        if (bucket.isEmpty()) {
+            map.remove(key);
+        } else {
+            map.put(key, ImmutableList.copyOf(bucket));
+        }
+    }
+
+    private static class Registration {
+
+        private final String world;
+        private final List<Long> chunks; // null if the arena is oversized
+
+        private Registration(String world, List<Long> chunks) {
+            this.world = world;
+            this.chunks = chunks;
+        }
+
+    }
+
+}
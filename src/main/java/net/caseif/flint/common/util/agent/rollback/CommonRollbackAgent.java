@@ -28,60 +28,101 @@ import net.caseif.flint.arena.Arena;
 import net.caseif.flint.common.CommonCore;
 import net.caseif.flint.common.arena.CommonArena;
 import net.caseif.flint.common.util.file.CommonDataFiles;
-import net.caseif.flint.minigame.Minigame;
+import net.caseif.flint.common.util.metrics.Counter;
+import net.caseif.flint.common.util.metrics.Histogram;
+import net.caseif.flint.util.physical.Boundary;
 import net.caseif.flint.util.physical.Location3D;
 
 import com.google.common.base.Preconditions;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 public abstract class CommonRollbackAgent implements IRollbackAgent {
 
-    private static final String SQLITE_PROTOCOL = "jdbc:sqlite:";
-    private static final Properties SQL_QUERIES = new Properties();
+    /**
+     * The maximum number of records which are read from the store before
+     * being applied during a rollback.
+     */
+    protected static final int REPLAY_BATCH_SIZE = 256;
+
+    /**
+     * The maximum number of chunks an arena may span for a snapshot of it to
+     * be captured.
+     */
+    protected static final int MAX_SNAPSHOT_CHUNKS = 4096;
 
     private final CommonArena arena;
 
-    private final File rollbackStore;
-    private final File stateStore;
+    private final RollbackJournal journal;
+    private final RollbackWriter writer;
+    private final RollbackIndex index = new RollbackIndex();
+
+    private RollbackStoreType storeType = RollbackStoreType.SQLITE;
+    private volatile RollbackStore store;
+
+    private volatile IncrementalReplay activeReplay;
+    private volatile boolean recovering;
+
+    private final RollbackMarker marker;
+    // entity changes which have been removed from the store but not yet restored; guarded by the flush lock
+    private final List<RollbackRecord> pendingEntityChanges = new ArrayList<>();
+
+    // checkpoint name -> ID of the last record logged before it; guarded by the journal's flush lock
+    private final LinkedHashMap<String, Integer> checkpoints = new LinkedHashMap<>();
+
+    private final RollbackSnapshot snapshot;
+    private volatile double snapshotThreshold = 0.25;
+
+    private final String metricSubject;
+    private final Histogram logTimes;
+    private final Counter loggedRecords;
+    private final Counter restoredRecords;
 
     protected CommonRollbackAgent(CommonArena arena) {
         this.arena = arena;
+        this.journal = new RollbackJournal(this);
+        this.writer = RollbackWriter.getWriter(arena.getMinigame());
+        this.marker = new RollbackMarker(new File(CommonDataFiles.ROLLBACK_STATE_DIR.getFile(arena.getMinigame()),
+                arena.getId() + ".marker"));
+        this.snapshot = new RollbackSnapshot(
+                new File(CommonDataFiles.ROLLBACK_SNAPSHOT_DIR.getFile(arena.getMinigame()), arena.getId()));
+        RollbackCompactor.register(arena.getMinigame());
 
-        rollbackStore = CommonDataFiles.ROLLBACK_STORE.getFile(getArena().getMinigame());
-        stateStore = CommonDataFiles.ROLLBACK_STATE_STORE.getFile(getArena().getMinigame());
+        this.metricSubject = "arena " + arena.getId();
+        this.logTimes = CommonCore.getMetrics().getHistogram("rollback.logChange");
+        this.loggedRecords = CommonCore.getMetrics().getCounter(getMetricPrefix(arena) + "records.logged");
+        this.restoredRecords = CommonCore.getMetrics().getCounter(getMetricPrefix(arena) + "records.restored");
+    }
 
-        initializeStateStore();
+    /**
+     * Returns the prefix of the names of all metrics pertaining to the given
+     * arena's rollbacks.
+     *
+     * @param arena The arena to get the metric prefix for
+     * @return The prefix of the arena's metrics
+     */
+    public static String getMetricPrefix(Arena arena) {
+        return "rollback.arena." + arena.getMinigame().getPlugin() + "." + arena.getId() + ".";
     }
 
-    static {
-        try (InputStream is = CommonRollbackAgent.class.getResourceAsStream("/sql-queries.properties")) {
-            SQL_QUERIES.load(is);
-        } catch (IOException ex) {
-            throw new RuntimeException("Failed to load SQL query strings", ex);
-        }
+    // records the time elapsed since the given instant in the histogram for the given operation
+    private void recordTime(String operation, long start) {
+        CommonCore.getMetrics().recordTime("rollback." + operation, metricSubject, start);
     }
 
     /**
@@ -96,70 +137,173 @@ public abstract class CommonRollbackAgent implements IRollbackAgent {
     }
 
     /**
-     * Creates a rollback database for the arena backing this
+     * Returns the {@link RollbackJournal} which buffers records logged by this
      * {@link CommonRollbackAgent}.
      *
-     * @throws IOException If an exception occurs while creating the database
-     *     file
-     * @throws SQLException If an exception occurs while manipulating the
-     *     database
+     * @return The {@link RollbackJournal} of this {@link CommonRollbackAgent}
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public RollbackJournal getJournal() {
+        return journal;
+    }
+
     @Override
-    public void createRollbackDatabase() throws IOException, SQLException {
-        if (!rollbackStore.exists()) {
-            rollbackStore.createNewFile();
-        }
-        if (!stateStore.exists()) {
-            stateStore.createNewFile();
-        }
+    public RollbackStoreType getStoreType() {
+        return storeType;
+    }
 
-        try (Connection conn = DriverManager.getConnection(SQLITE_PROTOCOL + rollbackStore.getAbsolutePath())) {
-            try (PreparedStatement st = conn.prepareStatement(SQL_QUERIES.getProperty("create-rollback-table")
-                    .replace("{table}", getArena().getId()))
-            ) {
-                st.executeUpdate();
+    /**
+     * Sets the type of {@link RollbackStore} backing this
+     * {@link CommonRollbackAgent}. The store may only be changed while it does
+     * not hold any records.
+     *
+     * <p>Records held by a store are not carried over to its replacement, so
+     * records left over in a persistent store (e.g. after a crash) will not be
+     * rolled back until the arena is switched back to that store.</p>
+     *
+     * @param type The new store type
+     * @throws IOException If an exception occurs while closing the current
+     *     store
+     * @throws IllegalStateException If the current store holds records
+     */
+    @Override
+    public void setStoreType(RollbackStoreType type) throws IOException {
+        Preconditions.checkNotNull(type, "type");
+        writer.await();
+        synchronized (journal.getFlushLock()) {
+            synchronized (this) {
+                if (type == storeType) {
+                    return;
+                }
+                Preconditions.checkState(!isRollingBack(), "Cannot change rollback store while rolling back");
+                if (store != null) {
+                    journal.flush();
+                    Preconditions.checkState(store.getRecordCount() == 0,
+                            "Cannot change rollback store while it holds records");
+                    store.close();
+                    store = null;
+                }
+                storeType = type;
             }
         }
     }
 
-    @Override
-    public Map<Integer, String> loadStateMap() throws IOException {
-        Map<Integer, String> stateMap = new HashMap<>();
+    /**
+     * Returns the {@link RollbackStore} backing this
+     * {@link CommonRollbackAgent}, opening it and rebuilding the in-memory
+     * {@link RollbackIndex} from its contents if necessary.
+     *
+     * @return The {@link RollbackStore} backing this agent
+     * @throws IOException If an exception occurs while opening the store
+     */
+    public RollbackStore getStore() throws IOException {
+        return openStore(true);
+    }
 
-        JsonObject json = new JsonParser().parse(new FileReader(stateStore)).getAsJsonObject();
+    private synchronized RollbackStore openStore(boolean rebuildIndex) throws IOException {
+        if (store == null) {
+            RollbackStore newStore = storeType.createStore(arena);
+            newStore.open();
 
-        if (!json.has(getArena().getId()) || !json.get(getArena().getId()).isJsonObject()) {
-            throw new IOException("Cannot load rollback states for arena " + getArena().getId());
+            if (rebuildIndex) {
+                rebuildIndex(newStore);
+                if (index.size() == 0) {
+                    newStore.clearStates(); // no records means any states left over are stale
+                }
+            }
+            store = newStore;
         }
+        return store;
+    }
 
-        JsonObject arena = json.getAsJsonObject(getArena().getId());
+    /**
+     * Rebuilds the in-memory {@link RollbackIndex} of this
+     * {@link CommonRollbackAgent} from the records present in the rollback
+     * store, e.g. after the server halted without rolling the arena back.
+     *
+     * @throws IOException If an exception occurs while reading from the store
+     */
+    public synchronized void rebuildIndex() throws IOException {
+        rebuildIndex(getStore());
+    }
 
-        for (Map.Entry<String, JsonElement> entry : arena.entrySet()) {
-            int id = -1;
-            try {
-                id = Integer.parseInt(entry.getKey());
-            } catch (NumberFormatException ex) {
-                CommonCore.logWarning("Cannot load rollback state with ID " + entry.getKey() + " - key is not an int");
+    private void rebuildIndex(RollbackStore store) throws IOException {
+        index.clear();
+        snapshot.resetCounts();
+        for (RollbackRecord.Type type : RollbackRecord.Type.values()) {
+            try (RollbackStore.Cursor cursor = store.query(type, null, 0)) {
+                RollbackRecord record;
+                while ((record = cursor.next()) != null) {
+                    if (index.mark(getWorld(record), record)) {
+                        countChange(record);
+                    }
+                }
             }
+        }
 
-            if (!entry.getValue().isJsonPrimitive() || !entry.getValue().getAsJsonPrimitive().isString()) {
-                CommonCore.logWarning("Cannot load rollback state with ID " + id + " - not a string");
-                continue;
-            }
+        if (index.size() > 0) {
+            CommonCore.logVerbose("Rebuilt rollback index for arena " + getArena().getId() + " with " + index.size()
+                    + " entries");
+        }
+    }
+
+    /**
+     * Creates a rollback database for the arena backing this
+     * {@link CommonRollbackAgent}.
+     *
+     * @throws IOException If an exception occurs while preparing the store
+     */
+    @Override
+    public void createRollbackDatabase() throws IOException {
+        getStore().prepare();
+    }
 
-            stateMap.put(id, entry.getValue().getAsString());
+    @Override
+    public Map<Integer, String> loadStateMap() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return getStore().loadStates();
+        } finally {
+            recordTime("loadStateMap", start);
         }
+    }
 
-        return stateMap;
+    @Override
+    public void logChange(RollbackRecord record) throws IOException, SQLException {
+        validate(record);
+        if (writer.getQueueDepth() == 0) {
+            log(record); // nothing logged asynchronously can precede the record, so it's written directly
+            return;
+        }
+        // records still queued by logChangeAsync were logged first, so they must be deduplicated first as well
+        try {
+            writer.submit(newLogTask(record)).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while logging rollback record", ex);
+        } catch (ExecutionException ex) {
+            Throwables.propagateIfInstanceOf(ex.getCause(), IOException.class);
+            throw Throwables.propagate(ex.getCause());
+        }
     }
 
+    /**
+     * Asynchronously logs the given {@link RollbackRecord} on the minigame's
+     * {@link RollbackWriter} thread. Failures are reported to the writer's
+     * {@link RollbackWriter.ErrorHandler} in addition to the returned future.
+     *
+     * @param record The {@link RollbackRecord} to log
+     * @return A {@link ListenableFuture} which completes once the record has
+     *     been accepted by the journal or store
+     * @throws NullPointerException If the record is missing data required by
+     *     its type
+     */
     @Override
-    public void logChange(RollbackRecord record)
-            throws IOException, SQLException {
-        String world = record.getLocation().getWorld().isPresent()
-                ? record.getLocation().getWorld().get()
-                : arena.getWorld();
+    public ListenableFuture<Void> logChangeAsync(RollbackRecord record) {
+        validate(record);
+        return writer.submit(this, record, newLogTask(record));
+    }
+
+    private void validate(RollbackRecord record) {
         Preconditions.checkNotNull(record.getLocation(), "Location required for all record types");
         switch (record.getType()) {
             case BLOCK_CHANGE:
@@ -175,252 +319,991 @@ public abstract class CommonRollbackAgent implements IRollbackAgent {
             default:
                 throw new AssertionError("Undefined record type");
         }
-        if (!rollbackStore.exists()) {
-            //noinspection ResultOfMethodCallIgnored
-            rollbackStore.createNewFile();
-        }
-        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + rollbackStore.getPath())) {
-            String querySql;
-            switch (record.getType()) {
-                case BLOCK_CHANGE:
-                    querySql = SQL_QUERIES.getProperty("query-by-location")
-                            .replace("{world}", world)
-                            .replace("{x}", "" + record.getLocation().getX())
-                            .replace("{y}", "" + record.getLocation().getY())
-                            .replace("{z}", "" + record.getLocation().getZ());
-                    break;
-                case ENTITY_CHANGE:
-                    querySql = SQL_QUERIES.getProperty("query-by-uuid")
-                            .replace("{uuid}", record.getUuid().toString());
-                    break;
-                default:
-                    querySql = null;
-                    break;
-            }
-            if (querySql != null) {
-                querySql = querySql.replace("{table}", getArena().getId());
-                try (
-                        PreparedStatement query = conn.prepareStatement(querySql);
-                        ResultSet queryResults = query.executeQuery();
-                ) {
-                    if (queryResults.next()) {
-                        return; // subject has already been modified; no need to re-record
-                    }
-                }
-            }
+    }
 
-            String updateSql;
-            switch (record.getType()) {
-                case BLOCK_CHANGE:
-                    updateSql = SQL_QUERIES.getProperty("insert-block-rollback-record")
-                            .replace("{world}", world)
-                            .replace("{x}", "" + record.getLocation().getX())
-                            .replace("{y}", "" + record.getLocation().getY())
-                            .replace("{z}", "" + record.getLocation().getZ())
-                            .replace("{type}", record.getTypeData())
-                            .replace("{data}", "" + record.getData());
-                    break;
-                case ENTITY_CREATION:
-                    updateSql = SQL_QUERIES.getProperty("insert-entity-created-rollback-record")
-                            .replace("{world}", world)
-                            .replace("{uuid}", record.getUuid().toString());
-                    break;
-                case ENTITY_CHANGE:
-                    updateSql = SQL_QUERIES.getProperty("insert-entity-changed-rollback-record")
-                            .replace("{world}", world)
-                            .replace("{x}", "" + record.getLocation().getX())
-                            .replace("{y}", "" + record.getLocation().getY())
-                            .replace("{z}", "" + record.getLocation().getZ())
-                            .replace("{uuid}", record.getUuid().toString())
-                            .replace("{type}", record.getTypeData());
-                    break;
-                default:
-                    throw new AssertionError("Inconsistency detected in method: recordType is in an illegal state. "
-                            + "Report this immediately.");
+    private Callable<Void> newLogTask(final RollbackRecord record) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                log(record);
+                return null;
             }
-            if (updateSql != null) {
-                // replace non-negotiable values
-                updateSql = updateSql
-                        .replace("{table}", getArena().getId())
-                        .replace("{state}", "" + (record.getStateSerial() != null ? 1 : 0))
-                        .replace("{record_type}", "" + record.getType().ordinal());
+        };
+    }
+
+    // deduplicates the given record and hands it to the journal or store
+    private void log(RollbackRecord record) throws IOException {
+        long start = System.nanoTime();
+        try {
+            RollbackStore store = this.store;
+            if (store == null) {
+                store = getStore(); // make sure the index reflects any records already in the store
             }
-            int id;
-            try (PreparedStatement ps = conn.prepareStatement(updateSql, Statement.RETURN_GENERATED_KEYS)) {
-                ps.executeUpdate();
-                try (ResultSet gen = ps.getGeneratedKeys()) {
-                    if (gen.next()) {
-                        id = gen.getInt(1);
-                    } else {
-                        throw new SQLException("Failed to get generated key from update query");
+            if (store.isJournaled()) {
+                if (!index.mark(getWorld(record), record)) {
+                    return; // subject has already been modified; no need to re-record
+                }
+                countChange(record);
+                journal.append(record);
+            } else {
+                // the store must not be cleared or truncated in the middle of an append
+                synchronized (journal.getFlushLock()) {
+                    if (!index.mark(getWorld(record), record)) {
+                        return;
                     }
+                    countChange(record);
+                    store.append(record);
                 }
             }
-            if (record.getStateSerial() != null) {
-                saveStateSerial(id, record.getStateSerial());
+            loggedRecords.increment();
+        } finally {
+            CommonCore.getMetrics().recordTime(logTimes, "rollback.logChange", metricSubject, start);
+        }
+    }
+
+    /**
+     * Writes the given {@link RollbackRecord}s to the rollback store in a
+     * single transaction.
+     *
+     * @param records The {@link RollbackRecord}s to write
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void writeRecords(List<RollbackRecord> records) throws IOException {
+        getStore().write(records);
+    }
+
+    /**
+     * Flushes the rollback store, if it has been opened, committing any
+     * records which were appended to it directly.
+     *
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void flushStore() throws IOException {
+        RollbackStore store = this.store;
+        if (store != null) {
+            store.flush();
+        }
+    }
+
+    // counts a block change against the density of its chunk
+    private void countChange(RollbackRecord record) {
+        if (record.getType() == RollbackRecord.Type.BLOCK_CHANGE && getWorld(record).equals(arena.getWorld())) {
+            snapshot.countChange((int) Math.floor(record.getLocation().getX()),
+                    (int) Math.floor(record.getLocation().getY()), (int) Math.floor(record.getLocation().getZ()));
+        }
+    }
+
+    // recounts the block changes against the snapshot from the records held by the given store
+    private void recountChanges(RollbackStore store) throws IOException {
+        snapshot.resetCounts();
+        if (!snapshot.isTracking()) {
+            return;
+        }
+        try (RollbackStore.Cursor cursor = store.query(RollbackRecord.Type.BLOCK_CHANGE, null, 0)) {
+            RollbackRecord record;
+            while ((record = cursor.next()) != null) {
+                countChange(record);
             }
         }
     }
 
+    /**
+     * Returns the name of the world the given {@link RollbackRecord} pertains
+     * to, falling back to the world of the arena if the record does not define
+     * one.
+     *
+     * @param record The {@link RollbackRecord} to get the world of
+     * @return The name of the world the record pertains to
+     */
+    String getWorld(RollbackRecord record) {
+        return record.getLocation().getWorld().isPresent()
+                ? record.getLocation().getWorld().get()
+                : arena.getWorld();
+    }
+
     @Override
-    @SuppressWarnings("deprecation")
     public void popRollbacks() throws IOException, SQLException {
-        final Set<RollbackRecord> blockChangeRecords = new HashSet<>();
-        final Set<RollbackRecord> entityCreateRecords = new HashSet<>();
-        final Set<RollbackRecord> entityChangeRecords = new HashSet<>();
-
-        if (rollbackStore.exists()) {
-            Map<Integer, String> stateMap = loadStateMap();
-
-            try (
-                    Connection conn = DriverManager.getConnection(SQLITE_PROTOCOL + rollbackStore.getAbsolutePath());
-                    PreparedStatement query = conn.prepareStatement(SQL_QUERIES.getProperty("get-all-records")
-                            .replace("{table}", getArena().getId()));
-                    PreparedStatement drop = conn.prepareStatement(SQL_QUERIES.getProperty("drop-table")
-                            .replace("{table}", getArena().getId()));
-                    ResultSet rs = query.executeQuery();
-            ) {
-                cacheEntities();
-
-                while (rs.next()) {
-                    try {
-                        int id = rs.getInt("id");
-                        String world = rs.getString("world");
-                        int x = rs.getInt("x");
-                        int y = rs.getInt("y");
-                        int z = rs.getInt("z");
-                        UUID uuid = rs.getString("uuid") != null ? UUID.fromString(rs.getString("uuid")) : null;
-                        String type = rs.getString("type");
-                        int data = rs.getInt("data");
-                        boolean state = rs.getBoolean("state");
-                        RollbackRecord.Type recordType = RollbackRecord.Type.values()[rs.getInt("record_type")];
-
-                        if (world.equals(getArena().getWorld())) {
-                            String stateSerial = stateMap.get(id);
-                            if (state && stateSerial == null) {
-                                CommonCore.logVerbose("Rollback record with ID " + id + " was marked as having "
-                                        + "state, but no corresponding serial was found");
-                            }
+        long start = System.nanoTime();
+        try {
+            Preconditions.checkState(!isRollingBack(),
+                    "Cannot roll back arena while an incremental rollback is running");
+            writer.await(); // make sure any asynchronously logged records have reached the journal
+            synchronized (journal.getFlushLock()) {
+                journal.flush(); // make sure everything we've buffered is visible to the query
+                popRollbacks0();
+            }
+        } finally {
+            recordTime("popRollbacks", start);
+        }
+    }
 
-                            switch (recordType) {
-                                case BLOCK_CHANGE:
-                                    blockChangeRecords.add(RollbackRecord.createBlockRecord(id,
-                                            new Location3D(world, x, y, z), type, data, stateSerial));
-                                    break;
-                                case ENTITY_CREATION:
-                                    entityCreateRecords.add(RollbackRecord.createEntityCreationRecord(id, uuid, world));
-                                    break;
-                                case ENTITY_CHANGE:
-                                    entityChangeRecords.add(RollbackRecord.createEntityChangeRecord(id, uuid,
-                                            new Location3D(world, x, y, z), type, stateSerial));
-                                    break;
-                                default:
-                                    CommonCore.logWarning("Invalid rollback record type at ID " + id);
-                            }
-                        } else {
-                            CommonCore.logVerbose("Rollback record with ID " + id + " in arena " + getArena().getId()
-                                    + " has a mismtching world name - refusing to roll back");
-                        }
-                    } catch (SQLException ex) {
-                        CommonCore.logSevere("Failed to read rollback record in arena " + getArena().getId());
-                        ex.printStackTrace();
-                    }
+    private void popRollbacks0() throws IOException {
+        RollbackStore store = getStore();
+        checkpoints.clear();
+        if (store.getRecordCount() == 0) {
+            store.clearStates();
+            return; // nothing to roll back
+        }
+
+        marker.begin(pendingEntityChanges);
+        List<RollbackRecord> entityChangeRecords = replayAfter(store, 0, true);
+        pendingEntityChanges.addAll(entityChangeRecords);
+        marker.pending(0, pendingEntityChanges);
+
+        store.clear();
+        updateMarker();
+        index.clear();
+        snapshot.discard();
+
+        restoreEntityChanges(entityChangeRecords);
+    }
+
+    // records that the store holds no records which have already been restored, deleting the marker if no entity
+    // changes remain pending either; must be called while holding the flush lock
+    private void updateMarker() throws IOException {
+        if (pendingEntityChanges.isEmpty()) {
+            marker.delete();
+        } else {
+            marker.begin(pendingEntityChanges);
+        }
+    }
+
+    // restores all block changes and entity creations with IDs greater than the given ID, returning the entity
+    // changes which remain to be restored; must be called while holding the flush lock
+    private List<RollbackRecord> replayAfter(RollbackStore store, int afterId, boolean useSnapshot)
+            throws IOException {
+        List<RollbackRecord> entityChangeRecords = new ArrayList<>();
+        // records are decoded in the background while we apply the ones which are ready
+        try (RollbackPipeline pipeline = new RollbackPipeline(store, afterId, REPLAY_BATCH_SIZE)) {
+            cacheEntities();
+
+            Set<Long> restoredChunks = useSnapshot ? restoreSnapshot() : Collections.<Long>emptySet();
+            replay(pipeline, RollbackRecord.Type.BLOCK_CHANGE, null, restoredChunks);
+            replay(pipeline, RollbackRecord.Type.ENTITY_CREATION, null, restoredChunks);
+            // there's at most one of these per entity and checkpoint, so it's fine to hold onto them until the next
+            // tick
+            replay(pipeline, RollbackRecord.Type.ENTITY_CHANGE, entityChangeRecords, restoredChunks);
+        }
+        return entityChangeRecords;
+    }
+
+    // restores each chunk whose share of changed blocks meets the snapshot threshold wholesale from the snapshot,
+    // returning the keys of the chunks which were restored
+    private Set<Long> restoreSnapshot() throws IOException {
+        Boundary bounds = arena.getBoundary();
+        if (!snapshot.isAvailable() || !isSnapshottable(bounds)) {
+            return Collections.emptySet();
+        }
+
+        Set<Long> restored = new HashSet<>();
+        for (int x = getChunk(bounds.getLowerBound().getX()); x <= getChunk(bounds.getUpperBound().getX());
+                x++) {
+            for (int z = getChunk(bounds.getLowerBound().getZ()); z <= getChunk(bounds.getUpperBound().getZ());
+                    z++) {
+                if (snapshot.getDensity(x, z, bounds) < snapshotThreshold) {
+                    continue;
+                }
+                byte[] data = snapshot.read(x, z);
+                if (data != null) { // the boundary may have been expanded since the snapshot was captured
+                    restoreChunk(arena.getWorld(), x, z, bounds, data);
+                    restored.add(RollbackSnapshot.getChunkKey(x, z));
                 }
+            }
+        }
 
-                for (RollbackRecord record : blockChangeRecords) {
-                    assert record.getType() == RollbackRecord.Type.BLOCK_CHANGE;
-                    rollbackBlock(record);
+        if (!restored.isEmpty()) {
+            CommonCore.logVerbose("Restored " + restored.size() + " chunks of arena " + getArena().getId()
+                    + " from snapshot");
+        }
+        return restored;
+    }
+
+    private static int getChunk(double coord) {
+        return (int) Math.floor(coord) >> 4;
+    }
+
+    // returns whether the given boundary is small enough for a snapshot to be captured of it
+    private static boolean isSnapshottable(Boundary bounds) {
+        double width = Math.floor(bounds.getUpperBound().getX() / 16) - Math.floor(bounds.getLowerBound().getX() / 16)
+                + 1;
+        double depth = Math.floor(bounds.getUpperBound().getZ() / 16) - Math.floor(bounds.getLowerBound().getZ() / 16)
+                + 1;
+        return width * depth <= MAX_SNAPSHOT_CHUNKS; // false for infinite boundaries as well
+    }
+
+    /**
+     * Captures a snapshot of each chunk spanned by the arena's
+     * {@link Boundary}, which is used by subsequent full rollbacks to restore
+     * chunks containing a large share of changed blocks wholesale rather than
+     * replaying each change individually. Chunks are compressed and written
+     * to disk asynchronously.
+     *
+     * <p>A snapshot is only captured if the arena spans at most
+     * {@link #MAX_SNAPSHOT_CHUNKS} chunks and no changes have been recorded
+     * since the arena was last rolled back, as the snapshot would otherwise
+     * not reflect the arena's original state. The snapshot is discarded once
+     * the arena is fully rolled back.</p>
+     *
+     * @return Whether a snapshot was captured
+     * @throws IOException If an exception occurs while capturing a chunk
+     * @throws IllegalStateException If the arena is being rolled back
+     */
+    @Override
+    public boolean captureSnapshot() throws IOException {
+        long start = System.nanoTime();
+        try {
+            final Boundary bounds = arena.getBoundary();
+            if (!isSnapshottable(bounds)) {
+                return false;
+            }
+
+            writer.await(); // make sure any asynchronously logged records have reached the journal
+            synchronized (journal.getFlushLock()) {
+                Preconditions.checkState(!isRollingBack(), "Cannot capture a snapshot while rolling back");
+                journal.flush();
+                if (getStore().getRecordCount() > 0) {
+                    return false; // any existing snapshot still reflects the arena's original state
                 }
-                for (RollbackRecord record : entityCreateRecords) {
-                    assert record.getType() == RollbackRecord.Type.BLOCK_CHANGE;
-                    rollbackEntityCreation(record);
+
+                snapshot.discard();
+                snapshot.begin();
+                final Map<Long, byte[]> chunks = new LinkedHashMap<>();
+                for (int x = getChunk(bounds.getLowerBound().getX()); x <= getChunk(bounds.getUpperBound().getX());
+                        x++) {
+                    for (int z = getChunk(bounds.getLowerBound().getZ());
+                            z <= getChunk(bounds.getUpperBound().getZ()); z++) {
+                        chunks.put(RollbackSnapshot.getChunkKey(x, z), captureChunk(arena.getWorld(), x, z, bounds));
+                    }
                 }
-                // entity change rollbacks need to be delayed by one tick to avoid conflict with block changes or any
-                // entities which might have been created in the same location
-                delay(new Runnable() {
+
+                // compression is comparatively slow, so we leave it to the writer thread
+                writer.submit(new Callable<Void>() {
                     @Override
-                    public void run() {
+                    public Void call() {
                         try {
-                            for (RollbackRecord record : entityChangeRecords) {
-                                assert record.getType() == RollbackRecord.Type.BLOCK_CHANGE;
-                                rollbackEntityChange(record);
+                            for (Map.Entry<Long, byte[]> e : chunks.entrySet()) {
+                                snapshot.write((int) (e.getKey() >> 32), (int) (long) e.getKey(), e.getValue());
                             }
+                            snapshot.complete();
                         } catch (IOException ex) {
-                            //
+                            CommonCore.logSevere("Failed to write rollback snapshot for arena " + getArena().getId());
+                            ex.printStackTrace();
                         }
+                        return null;
                     }
                 });
+                return true;
+            }
+        } finally {
+            recordTime("captureSnapshot", start);
+        }
+    }
+
+    /**
+     * Returns the minimum share of blocks within a chunk which must have been
+     * changed for the chunk to be restored from a snapshot during a full
+     * rollback.
+     *
+     * @return The snapshot threshold, between {@code 0} and {@code 1}
+     */
+    @Override
+    public double getSnapshotThreshold() {
+        return snapshotThreshold;
+    }
+
+    /**
+     * Sets the minimum share of blocks within a chunk which must have been
+     * changed for the chunk to be restored from a snapshot during a full
+     * rollback. Chunks below the threshold are restored by replaying their
+     * individual changes.
+     *
+     * @param threshold The snapshot threshold, between {@code 0} and
+     *     {@code 1}
+     */
+    @Override
+    public void setSnapshotThreshold(double threshold) {
+        Preconditions.checkArgument(threshold >= 0 && threshold <= 1, "Threshold must be between 0 and 1");
+        this.snapshotThreshold = threshold;
+    }
 
-                drop.executeUpdate();
+    /**
+     * Serializes the blocks of the given chunk which lie within the given
+     * {@link Boundary}. Invoked on the main thread.
+     *
+     * @param world The world containing the chunk
+     * @param chunkX The x-coordinate of the chunk
+     * @param chunkZ The z-coordinate of the chunk
+     * @param bounds The boundary of the arena
+     * @return The serialized contents of the chunk
+     * @throws IOException If an exception occurs while serializing the chunk
+     */
+    protected abstract byte[] captureChunk(String world, int chunkX, int chunkZ, Boundary bounds) throws IOException;
+
+    /**
+     * Restores the blocks of the given chunk which lie within the given
+     * {@link Boundary} from data previously returned by
+     * {@link #captureChunk(String, int, int, Boundary)}. Entities are not
+     * affected.
+     *
+     * @param world The world containing the chunk
+     * @param chunkX The x-coordinate of the chunk
+     * @param chunkZ The z-coordinate of the chunk
+     * @param bounds The boundary of the arena
+     * @param data The serialized contents of the chunk
+     * @throws IOException If an exception occurs while restoring the chunk
+     */
+    protected abstract void restoreChunk(String world, int chunkX, int chunkZ, Boundary bounds, byte[] data)
+            throws IOException;
+
+    // restores the given entity changes on the next tick, deleting the rollback marker once none remain pending
+    private void restoreEntityChanges(final List<RollbackRecord> entityChangeRecords) {
+        // entity change rollbacks need to be delayed by one tick to avoid conflict with block changes or any
+        // entities which might have been created in the same location
+        delay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (RollbackRecord record : entityChangeRecords) {
+                        assert record.getType() == RollbackRecord.Type.ENTITY_CHANGE;
+                        rollbackEntityChange(record);
+                    }
+                } catch (IOException ex) {
+                    CommonCore.logSevere("Failed to roll back entity changes in arena " + getArena().getId());
+                    ex.printStackTrace();
+                }
+
+                synchronized (journal.getFlushLock()) {
+                    pendingEntityChanges.removeAll(entityChangeRecords);
+                    try {
+                        updateMarker();
+                    } catch (IOException ex) {
+                        CommonCore.logSevere("Failed to update rollback marker for arena " + getArena().getId());
+                        ex.printStackTrace();
+                    }
+                    if (pendingEntityChanges.isEmpty()) {
+                        recovering = false;
+                    }
+                }
             }
-            clearStateStore();
-        } else {
-            throw new IllegalArgumentException("Rollback store does not exist");
+        });
+    }
+
+    /**
+     * Restores any changes left over from a round which was interrupted by
+     * the server halting, along with any entity changes which were left
+     * pending by an interrupted rollback.
+     *
+     * <p>This is intended to be invoked once as arenas are loaded, before any
+     * round is started. The arena reports that it is being rolled back until
+     * recovery has completed.</p>
+     *
+     * @return Whether there was anything to recover
+     * @throws IOException If an exception occurs while reading from or writing
+     *     to the store
+     * @throws IllegalStateException If the arena is being rolled back
+     */
+    @Override
+    public boolean recover() throws IOException {
+        long start = System.nanoTime();
+        try {
+            writer.await();
+            synchronized (journal.getFlushLock()) {
+                Preconditions.checkState(!isRollingBack(), "Arena is already being rolled back");
+                journal.flush();
+
+                // the index would be discarded by the rollback anyway
+                RollbackStore store = openStore(false);
+                int records = store.getRecordCount();
+                List<RollbackRecord> recovered = marker.readPending();
+                int restoredAfter = marker.readRestoredAfter();
+                if (records == 0 && recovered.isEmpty()) {
+                    marker.delete(); // a marker without pending changes is of no further use
+                    return false;
+                }
+
+                CommonCore.logInfo("Recovering interrupted rollback of arena " + getArena().getId() + " (" + records
+                        + " records, " + recovered.size() + " pending entity changes)");
+                recovering = true;
+                pendingEntityChanges.addAll(recovered);
+                if (restoredAfter >= 0) {
+                    // the rollback was interrupted while discarding records it had already restored, and the pending
+                    // changes include its own entity changes - discard them without restoring them a second time
+                    if (restoredAfter == 0) {
+                        store.clear();
+                    } else {
+                        store.truncate(restoredAfter);
+                    }
+                    updateMarker();
+                    restoreEntityChanges(recovered);
+                    popRollbacks0(); // restores any records preceding a checkpoint
+                } else {
+                    // the store hasn't been touched, and any pending changes are left over from earlier rollbacks, so
+                    // they predate its records and need to be restored last
+                    popRollbacks0();
+                    restoreEntityChanges(recovered);
+                }
+                return true;
+            }
+        } finally {
+            recordTime("recover", start);
+        }
+    }
+
+    /**
+     * Marks the current state of the arena as a checkpoint with the given
+     * name, which the arena may later be rolled back to via
+     * {@link #rollbackToCheckpoint(String)} without discarding changes made
+     * before it. If a checkpoint with the same name already exists, it is
+     * replaced.
+     *
+     * <p>Checkpoints are held in memory only and are discarded when the arena
+     * is fully rolled back. A full rollback always restores the arena to its
+     * state prior to the first recorded change.</p>
+     *
+     * @param name The name of the checkpoint
+     * @throws IOException If an exception occurs while flushing pending
+     *     records to the store
+     * @throws IllegalStateException If the arena is being rolled back
+     */
+    @Override
+    public void createCheckpoint(String name) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Preconditions.checkNotNull(name, "name");
+            writer.await(); // make sure any asynchronously logged records have reached the journal
+            synchronized (journal.getFlushLock()) {
+                Preconditions.checkState(!isRollingBack(), "Cannot create a checkpoint while rolling back");
+                journal.flush();
+                checkpoints.remove(name); // keep the map in order of creation
+                checkpoints.put(name, getStore().getLastId());
+                // blocks and entities changed after this point need to be recorded again so that they can be restored
+                // to their state at the checkpoint - the snapshot counts each block only once regardless
+                index.clear();
+            }
+        } finally {
+            recordTime("createCheckpoint", start);
         }
     }
 
+    /**
+     * Rolls back all changes made since the checkpoint with the given name
+     * was created. The checkpoint itself is retained, while any checkpoints
+     * created after it are discarded.
+     *
+     * @param name The name of the checkpoint to roll back to
+     * @throws IOException If an exception occurs while reading from or writing
+     *     to the store
+     * @throws IllegalArgumentException If no checkpoint with the given name
+     *     exists
+     * @throws IllegalStateException If the arena is being rolled back
+     */
     @Override
-    public void clearStateStore() throws IOException {
-        JsonObject json = new JsonParser().parse(new FileReader(stateStore)).getAsJsonObject();
+    public void rollbackToCheckpoint(String name) throws IOException {
+        long start = System.nanoTime();
+        try {
+            writer.await(); // make sure any asynchronously logged records have reached the journal
+            synchronized (journal.getFlushLock()) {
+                Preconditions.checkState(!isRollingBack(), "Arena is already being rolled back");
+                Integer boundary = checkpoints.get(name);
+                Preconditions.checkArgument(boundary != null, "No checkpoint named " + name);
 
-        if (!json.has(getArena().getId()) || !json.get(getArena().getId()).isJsonObject()) {
-            CommonCore.logWarning("State store clear requested, but arena was not present");
-            return;
+                journal.flush(); // make sure everything we've buffered is visible to the query
+                RollbackStore store = getStore();
+                marker.begin(pendingEntityChanges);
+                List<RollbackRecord> entityChangeRecords = replayAfter(store, boundary, false);
+                pendingEntityChanges.addAll(entityChangeRecords);
+                marker.pending(boundary, pendingEntityChanges);
+                store.truncate(boundary);
+                updateMarker();
+
+                dropCheckpoints(name, false);
+                index.clear();
+                // blocks changed only after the checkpoint no longer count against the snapshot
+                recountChanges(store);
+
+                restoreEntityChanges(entityChangeRecords);
+            }
+        } finally {
+            recordTime("rollbackToCheckpoint", start);
+        }
+    }
+
+    /**
+     * Discards the checkpoint with the given name along with all checkpoints
+     * created before it, allowing the store to discard records which are
+     * superseded by older records pertaining to the same block or entity.
+     *
+     * <p>This is useful for long-running arenas with many checkpoints, where
+     * earlier checkpoints will not be rolled back to.</p>
+     *
+     * @param name The name of the checkpoint to compact
+     * @throws IOException If an exception occurs while compacting the store
+     * @throws IllegalArgumentException If no checkpoint with the given name
+     *     exists
+     */
+    @Override
+    public void compactCheckpoint(String name) throws IOException {
+        long start = System.nanoTime();
+        try {
+            writer.await();
+            synchronized (journal.getFlushLock()) {
+                Preconditions.checkState(!isRollingBack(), "Cannot compact a checkpoint while rolling back");
+                Integer boundary = checkpoints.get(name);
+                Preconditions.checkArgument(boundary != null, "No checkpoint named " + name);
+
+                journal.flush();
+                getStore().compact(boundary + 1);
+                dropCheckpoints(name, true);
+            }
+        } finally {
+            recordTime("compactCheckpoint", start);
         }
+    }
 
-        json.remove(getArena().getId());
-        json.add(getArena().getId(), new JsonObject());
-        saveState(json);
+    @Override
+    public ImmutableList<String> getCheckpoints() {
+        synchronized (journal.getFlushLock()) {
+            return ImmutableList.copyOf(checkpoints.keySet());
+        }
     }
 
+    /**
+     * Discards records which are superseded by older records pertaining to
+     * the same block or entity, along with state serials which no longer
+     * belong to any record. Records logged after the earliest checkpoint are
+     * left untouched so that the arena may still be rolled back to it.
+     *
+     * @return The {@link RollbackStats} of the store following compaction
+     * @throws IOException If an exception occurs while compacting the store
+     * @throws IllegalStateException If the arena is being rolled back
+     */
     @Override
-    public void initializeStateStore() {
+    public RollbackStats compact() throws IOException {
+        long start = System.nanoTime();
         try {
-            if (!stateStore.exists()) {
-                //noinspection ResultOfMethodCallIgnored
-                stateStore.createNewFile();
+            writer.await();
+            synchronized (journal.getFlushLock()) {
+                Preconditions.checkState(!isRollingBack(), "Cannot compact rollback store while rolling back");
+                journal.flush();
+
+                RollbackStore store = getStore();
+                int before = store.getRecordCount();
+                int boundary = checkpoints.isEmpty() ? store.getLastId() : checkpoints.values().iterator().next();
+                store.compact(boundary + 1);
+                int states = store.pruneStates();
+
+                RollbackStats stats = getStats();
+                if (before > stats.getRecordCount() || states > 0) {
+                    CommonCore.logVerbose("Compacted rollback store for arena " + getArena().getId() + ": discarded "
+                            + (before - stats.getRecordCount()) + " records and " + states + " state serials");
+                }
+                return stats;
             }
-            JsonElement json = new JsonParser().parse(new FileReader(stateStore));
-            if (json.isJsonNull()) {
-                json = new JsonObject();
+        } finally {
+            recordTime("compact", start);
+        }
+    }
+
+    @Override
+    public RollbackStats getStats() throws IOException {
+        RollbackStore store = getStore();
+        return new RollbackStats(getArena().getId(), storeType, store.getRecordCount(), store.getSizeOnDisk());
+    }
+
+    // drops the checkpoints before (and including) or after the given one
+    private void dropCheckpoints(String name, boolean before) {
+        boolean reached = false;
+        Iterator<String> it = checkpoints.keySet().iterator();
+        while (it.hasNext()) {
+            String checkpoint = it.next();
+            if (checkpoint.equals(name)) {
+                reached = true;
+                if (before) {
+                    it.remove();
+                }
+            } else if (before != reached) {
+                it.remove();
             }
-            json.getAsJsonObject().add(getArena().getId(), new JsonObject());
-            saveState(json.getAsJsonObject());
-        } catch (IOException ex) {
-            throw new RuntimeException("Failed to intialize state store for arena " + arena.getId(), ex);
         }
     }
 
+    /**
+     * Rolls back the arena over the course of multiple ticks, restoring at most
+     * {@code maxRecords} records or spending at most {@code maxMillis}
+     * milliseconds on restoration per tick, whichever limit is reached first.
+     *
+     * <p>Block changes and entity creations are restored first, in chunk
+     * order. Entity changes are restored beginning on the tick following the
+     * last entity creation.</p>
+     *
+     * @param maxRecords The maximum number of records to restore per tick, or
+     *     {@code 0} for no limit
+     * @param maxMillis The maximum time in milliseconds to spend restoring
+     *     records per tick, or {@code 0} for no limit
+     * @param callback A callback to be invoked once the rollback completes or
+     *     is aborted due to an error, or {@code null}
+     * @return A {@link RollbackProgress} tracking the progress of the rollback
+     * @throws IOException If an exception occurs while reading from the store
+     * @throws IllegalStateException If a rollback is already in progress
+     */
     @Override
-    public void saveStateSerial(int id, String serial) throws IOException {
-        JsonObject json = new JsonParser().parse(new FileReader(stateStore)).getAsJsonObject();
+    public RollbackProgress popRollbacksIncrementally(int maxRecords, long maxMillis, Runnable callback)
+            throws IOException {
+        Preconditions.checkArgument(maxRecords >= 0, "Record budget must be non-negative");
+        Preconditions.checkArgument(maxMillis >= 0, "Time budget must be non-negative");
 
-        if (!json.has(getArena().getId())) {
-            initializeStateStore();
-            saveStateSerial(id, serial); // i'm a bad person
-            return;
+        writer.await(); // make sure any asynchronously logged records have reached the journal
+        synchronized (journal.getFlushLock()) {
+            Preconditions.checkState(!isRollingBack(), "Arena is already being rolled back");
+
+            journal.flush(); // make sure everything we've buffered is visible to the query
+
+            RollbackStore store = getStore();
+            int total = store.getRecordCount();
+            if (total == 0) {
+                store.clearStates();
+                RollbackProgress progress = new RollbackProgress(0);
+                progress.complete(false);
+                if (callback != null) {
+                    callback.run();
+                }
+                return progress; // nothing to roll back
+            }
+
+            checkpoints.clear();
+            marker.begin(pendingEntityChanges);
+            cacheEntities();
+
+            IncrementalReplay replay = new IncrementalReplay(store, new RollbackProgress(total), maxRecords,
+                    maxMillis, callback);
+            activeReplay = replay;
+            delay(replay);
+            return replay.progress;
         }
+    }
 
-        json.get(getArena().getId()).getAsJsonObject().addProperty(id + "", serial);
-        saveState(json);
+    /**
+     * Returns whether an incremental rollback or a recovery is currently in
+     * progress for this {@link CommonRollbackAgent}.
+     *
+     * @return Whether an incremental rollback or a recovery is currently in
+     *     progress
+     */
+    @Override
+    public boolean isRollingBack() {
+        return activeReplay != null || recovering;
     }
 
-    private void saveState(JsonObject json) throws IOException {
-        try (FileWriter writer = new FileWriter(stateStore)) {
-            writer.write(new Gson().toJson(json));
+    /**
+     * Applies the records of the given type as they are decoded by the given
+     * {@link RollbackPipeline}, in batches of at most
+     * {@link #REPLAY_BATCH_SIZE}.
+     *
+     * @param pipeline The pipeline to take records from
+     * @param type The type of records to replay
+     * @param sink The list to collect records into instead of applying them,
+     *     or {@code null} to apply them immediately
+     * @param restoredChunks The keys of chunks which have been restored from
+     *     a snapshot and whose block changes should thus be skipped
+     * @throws IOException If an exception occurs while reading or applying a
+     *     record
+     */
+    private void replay(RollbackPipeline pipeline, RollbackRecord.Type type, List<RollbackRecord> sink,
+            Set<Long> restoredChunks) throws IOException {
+        boolean skipRestored = type == RollbackRecord.Type.BLOCK_CHANGE && !restoredChunks.isEmpty();
+        // blocks are returned in chunk order, so the decision for the previous chunk usually applies
+        long lastChunk = 0;
+        boolean lastRestored = false;
+        boolean first = true;
+
+        RollbackRecordBatch batch;
+        while ((batch = pipeline.next(type)) != null) {
+            int restored = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (!accept(batch, i)) {
+                    continue;
+                }
+                if (skipRestored) {
+                    long chunk = RollbackSnapshot.getChunkKey(batch.getX(i) >> 4, batch.getZ(i) >> 4);
+                    if (first || chunk != lastChunk) {
+                        lastChunk = chunk;
+                        lastRestored = restoredChunks.contains(chunk);
+                        first = false;
+                    }
+                    if (lastRestored) {
+                        continue; // already restored from the snapshot
+                    }
+                }
+                if (sink != null) {
+                    sink.add(batch.get(i));
+                } else {
+                    apply(batch, i);
+                }
+                restored++;
+            }
+            restoredRecords.add(restored);
+            pipeline.release(type, batch);
         }
     }
 
-    protected static List<Arena> checkChangeAtLocation(Location3D location) {
-        List<Arena> arenas = new ArrayList<>();
-        for (Minigame mg : CommonCore.getMinigames().values()) {
-            for (Arena arena : mg.getArenas()) {
-                if (arena.getRound().isPresent() && arena.getBoundary().contains(location)) {
-                    arenas.add(arena);
+    private void apply(RollbackRecordBatch batch, int index) throws IOException {
+        switch (batch.getType(index)) {
+            case BLOCK_CHANGE:
+                rollbackBlock(batch, index);
+                break;
+            case ENTITY_CREATION:
+                rollbackEntityCreation(batch.get(index));
+                break;
+            case ENTITY_CHANGE:
+                rollbackEntityChange(batch.get(index));
+                break;
+            default:
+                throw new AssertionError("Undefined record type");
+        }
+    }
+
+    // returns whether the record at the given index should be rolled back
+    private boolean accept(RollbackRecordBatch batch, int index) {
+        String world = batch.getWorld(index);
+        if (world != null && !world.equals(getArena().getWorld())) {
+            CommonCore.logVerbose("Rollback record with ID " + batch.getId(index) + " in arena "
+                    + getArena().getId() + " has a mismtching world name - refusing to roll back");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rolls back the block change at the given index of the given
+     * {@link RollbackRecordBatch}.
+     *
+     * <p>The default implementation materializes the record and passes it to
+     * {@link #rollbackBlock(RollbackRecord)}. Platforms should override this
+     * to read the batch's columns directly, so that rolling back an arena
+     * does not allocate any objects per block.</p>
+     *
+     * @param batch The batch containing the record
+     * @param index The index of the record within the batch
+     * @throws IOException If an exception occurs while rolling back the block
+     */
+    @Override
+    public void rollbackBlock(RollbackRecordBatch batch, int index) throws IOException {
+        rollbackBlock(batch.get(index));
+    }
+
+    /**
+     * Restores a bounded number of records each time it is run, rescheduling
+     * itself via {@link CommonRollbackAgent#delay(Runnable)} until the store
+     * is exhausted.
+     */
+    private class IncrementalReplay implements Runnable {
+
+        private final RollbackRecord.Type[] phases = {RollbackRecord.Type.BLOCK_CHANGE,
+                RollbackRecord.Type.ENTITY_CREATION, RollbackRecord.Type.ENTITY_CHANGE};
+
+        private final RollbackStore store;
+        private final RollbackProgress progress;
+        private final int maxRecords;
+        private final long maxNanos;
+        private final Runnable callback;
+
+        private final RollbackRecordBatch batch = new RollbackRecordBatch(REPLAY_BATCH_SIZE);
+
+        private Map<Integer, String> states;
+        private int phase;
+        private RollbackStore.Cursor cursor;
+        private int position;
+
+        // whether the remaining records should be restored without regard for the budget
+        private boolean unbounded;
+        private boolean finished;
+
+        private IncrementalReplay(RollbackStore store, RollbackProgress progress, int maxRecords, long maxMillis,
+                Runnable callback) {
+            this.store = store;
+            this.progress = progress;
+            this.maxRecords = maxRecords;
+            this.maxNanos = maxMillis * 1000000L;
+            this.callback = callback;
+        }
+
+        /**
+         * Restores all remaining records immediately, including entity
+         * changes, which are otherwise delayed by a tick.
+         */
+        private void complete() {
+            unbounded = true;
+            run();
+        }
+
+        @Override
+        public void run() {
+            if (finished) {
+                return; // completed ahead of schedule
+            }
+            long start = System.nanoTime();
+            int restored = 0;
+            try {
+                while (phase < phases.length
+                        && (unbounded || maxRecords == 0 || restored < maxRecords)
+                        && (unbounded || maxNanos == 0 || System.nanoTime() - start < maxNanos)) {
+                    if (cursor == null) {
+                        if (states == null) {
+                            states = store.loadStates(); // shared by the cursors of all phases
+                        }
+                        cursor = store.query(phases[phase], states, 0);
+                        batch.clear();
+                        position = 0;
+                    }
+
+                    if (position == batch.size()) {
+                        position = 0;
+                        cursor.fill(batch);
+                    }
+                    if (batch.size() == 0) {
+                        closeCursor();
+                        phase++;
+                        if (!unbounded && phase < phases.length && phases[phase] == RollbackRecord.Type.ENTITY_CHANGE) {
+                            // entity changes need to be delayed by one tick to avoid conflict with block changes
+                            // or any entities which might have been created in the same location
+                            break;
+                        }
+                        continue;
+                    }
+
+                    int index = position++;
+                    if (accept(batch, index)) {
+                        apply(batch, index);
+                    }
+                    progress.increment();
+                    restored++;
+                }
+                restoredRecords.add(restored);
+                recordTime("popRollbacksIncrementally", start);
+
+                if (phase == phases.length) {
+                    synchronized (journal.getFlushLock()) {
+                        // entity changes have already been restored, so they mustn't be restored again by a recovery
+                        marker.pending(0, pendingEntityChanges);
+                        store.clear();
+                        updateMarker();
+                        index.clear();
+                        snapshot.discard();
+                    }
+                    finish(false);
+                } else {
+                    delay(this);
+                }
+            } catch (IOException | RuntimeException ex) {
+                CommonCore.logSevere("Failed to incrementally roll back arena " + getArena().getId());
+                ex.printStackTrace();
+                try {
+                    closeCursor();
+                } catch (IOException ignored) {
+                }
+                finish(true);
+            }
+        }
+
+        private void closeCursor() throws IOException {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } finally {
+                    cursor = null;
                 }
             }
         }
-        return arenas;
+
+        private void finish(boolean failed) {
+            finished = true;
+            progress.complete(failed);
+            activeReplay = null;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.await();
+        journal.flush();
+        journal.close();
+        synchronized (this) {
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+
+    /**
+     * Closes this agent and deletes all rollback data belonging to its arena,
+     * including records which have not yet been rolled back. This is intended
+     * to be invoked once the arena has been removed.
+     *
+     * <p>If the arena is being rolled back incrementally, the remainder of
+     * the rollback is completed immediately, as it could not be continued on
+     * later ticks once the arena has been removed. This method must thus be
+     * invoked on the main thread.</p>
+     *
+     * @throws IOException If an exception occurs while deleting the data
+     */
+    @Override
+    public void delete() throws IOException {
+        writer.await();
+        IncrementalReplay replay = activeReplay;
+        if (replay != null) {
+            replay.complete();
+        }
+        synchronized (journal.getFlushLock()) {
+            journal.close();
+            journal.discard();
+            deleteData();
+        }
+    }
+
+    // deletes the store, snapshot and marker of the arena; must be called while holding the flush lock
+    private void deleteData() throws IOException {
+        checkpoints.clear();
+        pendingEntityChanges.clear(); // any which are about to be restored will no longer update the marker
+        index.clear();
+        synchronized (this) {
+            openStore(false).delete();
+            store = null;
+        }
+        snapshot.discard();
+        marker.delete();
+    }
+
+    @Override
+    public void clearStateStore() throws IOException {
+        long start = System.nanoTime();
+        try {
+            getStore().clearStates();
+        } finally {
+            recordTime("clearStateStore", start);
+        }
+    }
+
+    @Override
+    public void initializeStateStore() throws IOException {
+        getStore();
+    }
+
+    @Override
+    public void saveStateSerial(int id, String serial) throws IOException {
+        long start = System.nanoTime();
+        try {
+            getStore().saveState(id, serial);
+        } finally {
+            recordTime("saveStateSerial", start);
+        }
+    }
+
+    protected static List<Arena> checkChangeAtLocation(Location3D location) {
+        return ActiveArenaIndex.query(location);
     }
 
     protected abstract void delay(Runnable runnable);
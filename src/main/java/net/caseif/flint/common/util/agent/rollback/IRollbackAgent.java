@@ -26,6 +26,9 @@ package net.caseif.flint.common.util.agent.rollback;
 
 import net.caseif.flint.util.physical.Location3D;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Map;
@@ -45,11 +48,45 @@ public interface IRollbackAgent {
 
     void logChange(RollbackRecord record) throws IOException, SQLException;
 
+    ListenableFuture<Void> logChangeAsync(RollbackRecord record);
+
     void popRollbacks() throws IOException, SQLException;
 
+    boolean recover() throws IOException;
+
+    RollbackProgress popRollbacksIncrementally(int maxRecords, long maxMillis, Runnable callback)
+            throws IOException, SQLException;
+
+    boolean isRollingBack();
+
+    RollbackStoreType getStoreType();
+
+    void setStoreType(RollbackStoreType type) throws IOException;
+
+    void createCheckpoint(String name) throws IOException;
+
+    void rollbackToCheckpoint(String name) throws IOException;
+
+    void compactCheckpoint(String name) throws IOException;
+
+    ImmutableList<String> getCheckpoints();
+
+    RollbackStats compact() throws IOException;
+
+    RollbackStats getStats() throws IOException;
+
+    boolean captureSnapshot() throws IOException;
+
+    double getSnapshotThreshold();
+
+    void setSnapshotThreshold(double threshold);
+
     void rollbackBlock(RollbackRecord record)
             throws IOException;
 
+    void rollbackBlock(RollbackRecordBatch batch, int index)
+            throws IOException;
+
     void rollbackEntityChange(RollbackRecord record)
             throws IOException;
 
@@ -57,4 +94,8 @@ public interface IRollbackAgent {
 
     void cacheEntities();
 
+    void close() throws IOException, SQLException;
+
+    void delete() throws IOException;
+
 }
@@ -0,0 +1,835 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.common.CommonCore;
+import net.caseif.flint.common.arena.CommonArena;
+import net.caseif.flint.common.util.file.CommonDataFiles;
+import net.caseif.flint.util.physical.Location3D;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link RollbackStore} backed by a memory-mapped file per arena.
+ *
+ * <p>Block changes are stored as fixed-width records of
+ * {@link #BLOCK_RECORD_SIZE} bytes: the three coordinates, the interned IDs of
+ * the block type and world, the data value and a set of flags. Type and world
+ * names are interned into a dictionary which is persisted alongside the
+ * mapped file. Appending a block change without state thus amounts to
+ * reserving a slot via an atomic counter and writing six ints into the mapped
+ * region, without taking a lock or allocating. A record becomes visible once
+ * its flags, which are written last, mark it as committed and all slots
+ * before it have been committed as well; a torn write at the end of the file
+ * is simply ignored on the next load.</p>
+ *
+ * <p>Entity records are comparatively rare and are kept in a small
+ * append-only side log. Each still reserves a slot in the mapped region, so
+ * that block and entity records share a single increasing sequence of IDs.
+ * State serials are kept in a {@link RollbackStateLog}. A record carrying
+ * state is only committed by {@link #flush()}, which syncs the serials of all
+ * such records appended since the last flush at once, so that no record is
+ * committed before its serial is durable.</p>
+ *
+ * @author Max Roncacé
+ */
+public class MappedRollbackStore implements RollbackStore {
+
+    /**
+     * The size in bytes of a single block record.
+     */
+    public static final int BLOCK_RECORD_SIZE = 24;
+
+    private static final int MAGIC = 0x464C5242; // "FLRB"
+    private static final int FORMAT_VERSION = 3;
+
+    private static final int HEADER_SIZE = 16;
+    // offset of the number of slots committed without gaps, which are the only ones visible to readers
+    private static final int HEADER_COMMITTED = 8;
+    private static final int INITIAL_CAPACITY = HEADER_SIZE + BLOCK_RECORD_SIZE * 4096;
+
+    // offsets of the fields of a block record
+    private static final int FIELD_X = 0;
+    private static final int FIELD_Y = 4;
+    private static final int FIELD_Z = 8;
+    private static final int FIELD_TYPE = 12;
+    private static final int FIELD_DATA = 16;
+    private static final int FIELD_FLAGS = 20;
+
+    private static final int FLAG_COMMITTED = 1 << 31;
+    private static final int FLAG_STATE = 1 << 30;
+    private static final int FLAG_ENTITY = 1 << 29;
+    private static final int WORLD_MASK = FLAG_ENTITY - 1;
+
+    private static final int MAX_SLOTS = (Integer.MAX_VALUE - HEADER_SIZE) / BLOCK_RECORD_SIZE;
+
+    private final CommonArena arena;
+    private final File file;
+    private final File dictionaryFile;
+    private final File entityFile;
+    private final RollbackStateLog stateLog;
+
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    // mirrors the number of committed slots held by the header
+    private final AtomicInteger committed = new AtomicInteger();
+    // slots of records carrying state which have been written but are awaiting the next flush to be committed
+    private final Queue<Integer> unsynced = new ConcurrentLinkedQueue<>();
+    private final Object growLock = new Object();
+    private RandomAccessFile raf;
+    private volatile MappedByteBuffer buffer;
+
+    private final Map<String, Integer> dictionary = new ConcurrentHashMap<>();
+    private final List<String> dictionaryValues = new ArrayList<>();
+    private DataOutputStream dictionaryOut;
+
+    private final List<RollbackRecord> entities = new ArrayList<>();
+    private DataOutputStream entityOut;
+
+    public MappedRollbackStore(CommonArena arena) {
+        this.arena = arena;
+        File dir = CommonDataFiles.ROLLBACK_MAPPED_DIR.getFile(arena.getMinigame());
+        this.file = new File(dir, arena.getId() + ".dat");
+        this.dictionaryFile = new File(dir, arena.getId() + ".dict");
+        this.entityFile = new File(dir, arena.getId() + ".entities");
+        this.stateLog = new RollbackStateLog(new File(dir, arena.getId() + ".states"));
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        synchronized (growLock) {
+            map(Math.max(file.length(), INITIAL_CAPACITY));
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                CommonCore.logWarning("Mapped rollback store for arena " + arena.getId() + " is corrupt or uses an "
+                        + "unsupported format - discarding it");
+                reset(buffer.capacity());
+                if (entityFile.exists()) {
+                    new FileOutputStream(entityFile).close(); // its IDs would otherwise collide with new records
+                }
+                stateLog.create();
+                return;
+            }
+        }
+
+        loadDictionary();
+
+        // find the end of the committed records - the header may lag behind records committed just before a crash
+        int slot = buffer.getInt(HEADER_COMMITTED);
+        if (slot < 0 || getOffset(slot) > buffer.capacity()) {
+            slot = 0;
+        }
+        while (getOffset(slot) + BLOCK_RECORD_SIZE <= buffer.capacity()
+                && (buffer.getInt(getOffset(slot) + FIELD_FLAGS) & FLAG_COMMITTED) != 0) {
+            slot++;
+        }
+        nextSlot.set(slot);
+        setCommitted(slot);
+
+        loadEntities();
+        stateLog.create();
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        synchronized (growLock) {
+            if (buffer == null) {
+                if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+                    throw new IOException("Failed to create directory for mapped rollback store");
+                }
+                map(INITIAL_CAPACITY);
+                reset(buffer.capacity());
+            }
+        }
+        stateLog.create();
+    }
+
+    // must be called while holding the grow lock
+    private void map(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Mapped rollback store for arena " + arena.getId() + " is full");
+        }
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        if (raf.length() < capacity) {
+            raf.setLength(capacity);
+        }
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    // clears all slots up to the given offset; must be called while holding the grow lock
+    private void reset(int end) {
+        MappedByteBuffer buf = buffer;
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, FORMAT_VERSION);
+        for (int offset = HEADER_SIZE; offset + BLOCK_RECORD_SIZE <= end && offset < buf.capacity();
+                offset += BLOCK_RECORD_SIZE) {
+            buf.putInt(offset + FIELD_FLAGS, 0);
+        }
+        nextSlot.set(0);
+        unsynced.clear();
+        setCommitted(0);
+        buf.force();
+    }
+
+    // sets the number of committed slots after they have been reset or truncated; must not race with appends
+    private void setCommitted(int slots) {
+        committed.set(slots);
+        buffer.putInt(HEADER_COMMITTED, slots);
+    }
+
+    // extends the committed slots past any which have been committed since, stopping at the first slot which has
+    // been reserved but not yet committed
+    private void advanceCommitted() {
+        while (true) {
+            // being a read-modify-write, this orders our flags before those of any writer which advances after us,
+            // so that the last writer to get here sees every flag written before it
+            int start = committed.getAndAdd(0);
+            MappedByteBuffer buf = buffer;
+            int reserved = Math.min(nextSlot.get(), (buf.capacity() - HEADER_SIZE) / BLOCK_RECORD_SIZE);
+            int end = start;
+            while (end < reserved && (buf.getInt(getOffset(end) + FIELD_FLAGS) & FLAG_COMMITTED) != 0) {
+                end++;
+            }
+            if (end == start) {
+                return;
+            }
+            if (committed.compareAndSet(start, end)) {
+                // a racing writer may leave a smaller value here, which merely makes open() scan a little further
+                buf.putInt(HEADER_COMMITTED, end);
+                return;
+            }
+        }
+    }
+
+    private static int getOffset(int slot) {
+        return HEADER_SIZE + slot * BLOCK_RECORD_SIZE;
+    }
+
+    // returns a buffer which is guaranteed to be large enough to hold the given offset
+    private MappedByteBuffer ensureCapacity(long end) throws IOException {
+        MappedByteBuffer buf = buffer;
+        if (buf != null && end <= buf.capacity()) {
+            return buf;
+        }
+        synchronized (growLock) {
+            if (buffer == null) {
+                prepare();
+            }
+            if (end > buffer.capacity()) {
+                // writers still holding the old mapping write to the same pages of the file, so this is safe
+                map(Math.max(end, (long) buffer.capacity() * 2));
+            }
+            return buffer;
+        }
+    }
+
+    @Override
+    public boolean isJournaled() {
+        return false;
+    }
+
+    @Override
+    public int getRecordCount() {
+        return committed.get();
+    }
+
+    @Override
+    public int getLastId() {
+        return committed.get();
+    }
+
+    @Override
+    public void append(RollbackRecord record) throws IOException {
+        if (record.getType() != RollbackRecord.Type.BLOCK_CHANGE) {
+            appendEntity(record);
+            return;
+        }
+
+        int worldId = intern(record.getLocation().getWorld().or(arena.getWorld()));
+        int typeId = intern(record.getTypeData());
+
+        int slot = reserveSlot();
+        int id = slot + 1;
+
+        int flags = FLAG_COMMITTED | worldId;
+        if (record.getStateSerial() != null) {
+            // the record is committed by the next flush, once its state is durable
+            stateLog.append(id, record.getStateSerial());
+            flags = FLAG_STATE | worldId;
+        }
+
+        int offset = getOffset(slot);
+        MappedByteBuffer buf = ensureCapacity((long) offset + BLOCK_RECORD_SIZE);
+        buf.putInt(offset + FIELD_X, (int) record.getLocation().getX());
+        buf.putInt(offset + FIELD_Y, (int) record.getLocation().getY());
+        buf.putInt(offset + FIELD_Z, (int) record.getLocation().getZ());
+        buf.putInt(offset + FIELD_TYPE, typeId);
+        buf.putInt(offset + FIELD_DATA, record.getData());
+        buf.putInt(offset + FIELD_FLAGS, flags); // commits the record unless it carries state
+        commit(slot, flags);
+    }
+
+    // makes the given slot visible if its flags mark it as committed, or queues it for the next flush otherwise
+    private void commit(int slot, int flags) {
+        if ((flags & FLAG_COMMITTED) != 0) {
+            advanceCommitted();
+        } else {
+            unsynced.add(slot);
+        }
+    }
+
+    private int reserveSlot() throws IOException {
+        int slot = nextSlot.getAndIncrement();
+        if (slot >= MAX_SLOTS) {
+            nextSlot.decrementAndGet();
+            throw new IOException("Mapped rollback store for arena " + arena.getId() + " is full");
+        }
+        return slot;
+    }
+
+    private void appendEntity(RollbackRecord record) throws IOException {
+        int slot = reserveSlot();
+        int id = slot + 1;
+
+        int flags = FLAG_COMMITTED | FLAG_ENTITY;
+        if (record.getStateSerial() != null) {
+            stateLog.append(id, record.getStateSerial());
+            flags = FLAG_STATE | FLAG_ENTITY;
+        }
+
+        synchronized (entities) {
+            if (entityOut == null) {
+                prepare();
+                entityOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(entityFile, true)));
+            }
+            writeEntity(entityOut, record, id);
+            entityOut.flush();
+            entities.add(RollbackRecord.copy(record, id, null));
+        }
+
+        int offset = getOffset(slot);
+        ensureCapacity((long) offset + BLOCK_RECORD_SIZE).putInt(offset + FIELD_FLAGS, flags);
+        commit(slot, flags);
+    }
+
+    private void writeEntity(DataOutputStream out, RollbackRecord record, int id) throws IOException {
+        out.writeInt(id);
+        out.writeByte(record.getType().ordinal());
+        out.writeUTF(record.getLocation().getWorld().or(arena.getWorld()));
+        out.writeInt((int) record.getLocation().getX());
+        out.writeInt((int) record.getLocation().getY());
+        out.writeInt((int) record.getLocation().getZ());
+        out.writeLong(record.getUuid().getMostSignificantBits());
+        out.writeLong(record.getUuid().getLeastSignificantBits());
+        out.writeUTF(record.getTypeData() != null ? record.getTypeData() : "");
+    }
+
+    // rewrites the entity log from the in-memory list; must be called while holding the entity lock
+    private void rewriteEntities() throws IOException {
+        if (entityOut != null) {
+            entityOut.close();
+            entityOut = null;
+        }
+        if (!entityFile.exists()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(entityFile)))) {
+            for (RollbackRecord record : entities) {
+                writeEntity(out, record, record.getId());
+            }
+        }
+    }
+
+    private void loadEntities() throws IOException {
+        synchronized (entities) {
+            entities.clear();
+            if (!entityFile.exists()) {
+                return;
+            }
+            boolean stale = false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entityFile)))) {
+                while (true) {
+                    int id;
+                    try {
+                        id = in.readInt();
+                    } catch (EOFException ex) {
+                        break; // clean end of log
+                    }
+                    try {
+                        int recordType = in.readByte();
+                        String world = in.readUTF();
+                        Location3D loc = new Location3D(world, in.readInt(), in.readInt(), in.readInt());
+                        UUID uuid = new UUID(in.readLong(), in.readLong());
+                        String type = in.readUTF();
+                        if (id > nextSlot.get()) {
+                            stale = true; // the record's slot was never committed
+                            continue;
+                        }
+                        entities.add(recordType == RollbackRecord.Type.ENTITY_CREATION.ordinal()
+                                ? RollbackRecord.createEntityCreationRecord(id, uuid, world)
+                                : RollbackRecord.createEntityChangeRecord(id, uuid, loc, type, null));
+                    } catch (EOFException ex) {
+                        CommonCore.logWarning("Entity log for arena " + arena.getId() + " ends with a partial "
+                                + "entry - ignoring");
+                        stale = true;
+                        break;
+                    }
+                }
+            }
+            if (stale) {
+                rewriteEntities(); // make sure discarded entries don't resurface once their IDs are reused
+            }
+        }
+    }
+
+    // returns the ID of the given string in the dictionary, adding it if necessary
+    private int intern(String value) throws IOException {
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (dictionaryValues) {
+            id = dictionary.get(value);
+            if (id == null) {
+                if (dictionaryOut == null) {
+                    prepare();
+                    dictionaryOut = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(dictionaryFile, true)));
+                }
+                // the entry must be durable before any record referencing it is committed
+                dictionaryOut.writeUTF(value);
+                dictionaryOut.flush();
+                id = dictionaryValues.size();
+                dictionaryValues.add(value);
+                dictionary.put(value, id);
+            }
+            return id;
+        }
+    }
+
+    private void loadDictionary() throws IOException {
+        synchronized (dictionaryValues) {
+            dictionary.clear();
+            dictionaryValues.clear();
+            if (!dictionaryFile.exists()) {
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(dictionaryFile)))) {
+                while (true) {
+                    String value;
+                    try {
+                        value = in.readUTF();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+                    dictionary.put(value, dictionaryValues.size());
+                    dictionaryValues.add(value);
+                }
+            }
+        }
+    }
+
+    private String lookup(int id) {
+        synchronized (dictionaryValues) {
+            return id < dictionaryValues.size() ? dictionaryValues.get(id) : null;
+        }
+    }
+
+    @Override
+    public void write(List<RollbackRecord> records) throws IOException {
+        for (RollbackRecord record : records) {
+            append(record);
+        }
+        flush();
+    }
+
+    /**
+     * Syncs the state serials of all records carrying state which have been
+     * appended since the last flush, and subsequently commits the records.
+     *
+     * @throws IOException If an exception occurs while syncing the state log
+     */
+    @Override
+    public void flush() throws IOException {
+        if (unsynced.isEmpty()) {
+            return;
+        }
+        // only the serials of slots queued before the sync are guaranteed to be covered by it
+        List<Integer> slots = new ArrayList<>();
+        Integer slot;
+        while ((slot = unsynced.poll()) != null) {
+            slots.add(slot);
+        }
+        stateLog.flush();
+
+        MappedByteBuffer buf = buffer;
+        if (buf == null) {
+            return;
+        }
+        for (int s : slots) {
+            int offset = getOffset(s);
+            buf.putInt(offset + FIELD_FLAGS, buf.getInt(offset + FIELD_FLAGS) | FLAG_COMMITTED);
+        }
+        advanceCommitted();
+    }
+
+    @Override
+    public Cursor query(RollbackRecord.Type type, Map<Integer, String> states, int afterId) {
+        final Map<Integer, String> stateMap = states != null ? states : Collections.<Integer, String>emptyMap();
+        final MappedByteBuffer buf = buffer;
+        final int end = committed.get();
+
+        if (type != RollbackRecord.Type.BLOCK_CHANGE) {
+            final List<RollbackRecord> matches = new ArrayList<>();
+            synchronized (entities) {
+                for (RollbackRecord record : entities) {
+                    if (record.getType() == type && record.getId() > afterId && record.getId() <= end) {
+                        boolean hasState = buf != null
+                                && (buf.getInt(getOffset(record.getId() - 1) + FIELD_FLAGS) & FLAG_STATE) != 0;
+                        matches.add(RollbackRecord.copy(record, record.getId(),
+                                hasState ? stateMap.get(record.getId()) : null));
+                    }
+                }
+            }
+            Collections.sort(matches, MemoryRollbackStore.ID_ORDER);
+            final Iterator<RollbackRecord> it = matches.iterator();
+            return new Cursor() {
+                @Override
+                public RollbackRecord next() {
+                    return it.hasNext() ? it.next() : null;
+                }
+
+                @Override
+                public int fill(RollbackRecordBatch batch) {
+                    batch.clear();
+                    batch.setStateMap(stateMap);
+                    while (it.hasNext()) {
+                        RollbackRecord record = it.next();
+                        if (!batch.add(record, record.getStateSerial() != null)) {
+                            break;
+                        }
+                    }
+                    return batch.size();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        final int[] order = buf != null ? sortByChunk(buf, Math.max(afterId, 0), end) : new int[0];
+        return new Cursor() {
+            private int i = 0;
+
+            @Override
+            public RollbackRecord next() {
+                while (i < order.length) {
+                    int slot = order[i++];
+                    int offset = getOffset(slot);
+                    int flags = buf.getInt(offset + FIELD_FLAGS);
+                    String world = lookup(flags & WORLD_MASK);
+                    String type = lookup(buf.getInt(offset + FIELD_TYPE));
+                    if (world == null || type == null) {
+                        CommonCore.logWarning("Rollback record with ID " + (slot + 1) + " in arena "
+                                + arena.getId() + " references an unknown dictionary entry - skipping");
+                        continue;
+                    }
+                    return RollbackRecord.createBlockRecord(slot + 1,
+                            new Location3D(world, buf.getInt(offset + FIELD_X), buf.getInt(offset + FIELD_Y),
+                                    buf.getInt(offset + FIELD_Z)),
+                            type, buf.getInt(offset + FIELD_DATA),
+                            (flags & FLAG_STATE) != 0 ? stateMap.get(slot + 1) : null);
+                }
+                return null;
+            }
+
+            @Override
+            public int fill(RollbackRecordBatch batch) {
+                batch.clear();
+                batch.setStateMap(stateMap);
+                while (i < order.length) {
+                    int slot = order[i++];
+                    int offset = getOffset(slot);
+                    int flags = buf.getInt(offset + FIELD_FLAGS);
+                    String world = lookup(flags & WORLD_MASK);
+                    String type = lookup(buf.getInt(offset + FIELD_TYPE));
+                    if (world == null || type == null) {
+                        CommonCore.logWarning("Rollback record with ID " + (slot + 1) + " in arena "
+                                + arena.getId() + " references an unknown dictionary entry - skipping");
+                        continue;
+                    }
+                    if (!batch.add(slot + 1, RollbackRecord.Type.BLOCK_CHANGE, batch.intern(world),
+                            buf.getInt(offset + FIELD_X), buf.getInt(offset + FIELD_Y), buf.getInt(offset + FIELD_Z),
+                            0, 0, batch.intern(type), buf.getInt(offset + FIELD_DATA), (flags & FLAG_STATE) != 0)) {
+                        break;
+                    }
+                }
+                return batch.size();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void truncate(int afterId) throws IOException {
+        synchronized (growLock) {
+            int end = nextSlot.get();
+            if (buffer == null || afterId >= end) {
+                return;
+            }
+            for (int slot = Math.max(afterId, 0); slot < end; slot++) {
+                buffer.putInt(getOffset(slot) + FIELD_FLAGS, 0);
+            }
+            Iterator<Integer> it = unsynced.iterator();
+            while (it.hasNext()) {
+                if (it.next() >= afterId) {
+                    it.remove();
+                }
+            }
+            nextSlot.set(Math.max(afterId, 0));
+            setCommitted(Math.max(afterId, 0));
+        }
+        synchronized (entities) {
+            Iterator<RollbackRecord> it = entities.iterator();
+            boolean changed = false;
+            while (it.hasNext()) {
+                if (it.next().getId() > afterId) {
+                    it.remove();
+                    changed = true;
+                }
+            }
+            if (changed) {
+                rewriteEntities();
+            }
+        }
+        // the truncated slots will be reused, so their serials must not outlive them
+        stateLog.truncate(afterId);
+    }
+
+    /**
+     * Does nothing, as block records are too small for compaction to be
+     * worthwhile and are discarded wholesale once the arena is rolled back.
+     *
+     * @param beforeId The ID before which superseded records may be discarded
+     */
+    @Override
+    public void compact(int beforeId) {
+    }
+
+    /**
+     * Returns the slots of all committed block records ordered by chunk, using
+     * a bucket sort over two sequential passes of the mapped region.
+     *
+     * @param buf The mapped region
+     * @param from The first slot to consider
+     * @param to The slot after the last slot to consider
+     * @return The committed slots, ordered by chunk and by descending slot
+     *     within each chunk
+     */
+    private static int[] sortByChunk(MappedByteBuffer buf, int from, int to) {
+        // count the records in each chunk
+        TreeMap<Long, int[]> buckets = new TreeMap<>();
+        Map<Long, int[]> cache = new HashMap<>();
+        int committed = 0;
+        for (int slot = from; slot < to; slot++) {
+            if (!isBlock(buf, slot)) {
+                continue;
+            }
+            int offset = getOffset(slot);
+            long key = chunkKey(buf.getInt(offset + FIELD_X), buf.getInt(offset + FIELD_Z));
+            int[] count = cache.get(key);
+            if (count == null) {
+                count = new int[1];
+                cache.put(key, count);
+                buckets.put(key, count);
+            }
+            count[0]++;
+            committed++;
+        }
+
+        // convert counts to starting positions
+        int pos = 0;
+        for (int[] bucket : buckets.values()) {
+            int count = bucket[0];
+            bucket[0] = pos;
+            pos += count;
+        }
+
+        int[] order = new int[committed];
+        for (int slot = to - 1; slot >= from; slot--) {
+            if (!isBlock(buf, slot)) {
+                continue;
+            }
+            int offset = getOffset(slot);
+            int[] bucket = cache.get(chunkKey(buf.getInt(offset + FIELD_X), buf.getInt(offset + FIELD_Z)));
+            if (bucket[0] < order.length) {
+                order[bucket[0]++] = slot;
+            }
+        }
+        return order;
+    }
+
+    // returns whether the given slot holds a committed block record
+    private static boolean isBlock(MappedByteBuffer buf, int slot) {
+        int offset = getOffset(slot);
+        return offset + BLOCK_RECORD_SIZE <= buf.capacity()
+                && (buf.getInt(offset + FIELD_FLAGS) & (FLAG_COMMITTED | FLAG_ENTITY)) == FLAG_COMMITTED;
+    }
+
+    // sorts by chunk x, then by chunk z
+    private static long chunkKey(int x, int z) {
+        return ((long) (x >> 4) << 32) + ((z >> 4) - (long) Integer.MIN_VALUE);
+    }
+
+    @Override
+    public int pruneStates() throws IOException {
+        Set<Integer> ids = new HashSet<>();
+        synchronized (growLock) {
+            if (buffer != null) {
+                int end = nextSlot.get();
+                for (int slot = 0; slot < end; slot++) {
+                    if ((buffer.getInt(getOffset(slot) + FIELD_FLAGS) & FLAG_STATE) != 0) {
+                        ids.add(slot + 1);
+                    }
+                }
+            }
+        }
+        return stateLog.retain(ids);
+    }
+
+    @Override
+    public long getSizeOnDisk() {
+        return file.length() + dictionaryFile.length() + entityFile.length() + stateLog.getFile().length();
+    }
+
+    @Override
+    public Map<Integer, String> loadStates() throws IOException {
+        return stateLog.load();
+    }
+
+    @Override
+    public void saveState(int id, String serial) throws IOException {
+        stateLog.append(id, serial);
+        stateLog.flush();
+    }
+
+    @Override
+    public void clearStates() throws IOException {
+        stateLog.truncate();
+    }
+
+    @Override
+    public void clear() throws IOException {
+        synchronized (growLock) {
+            if (buffer != null) {
+                reset(getOffset(nextSlot.get()));
+            }
+        }
+        synchronized (entities) {
+            if (entityOut != null) {
+                entityOut.close();
+                entityOut = null;
+            }
+            if (entityFile.exists()) {
+                new FileOutputStream(entityFile).close();
+            }
+            entities.clear();
+        }
+        clearStates();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        synchronized (growLock) {
+            if (buffer != null) {
+                buffer.force();
+                buffer = null;
+            }
+            if (raf != null) {
+                raf.close();
+                raf = null;
+            }
+        }
+        synchronized (dictionaryValues) {
+            if (dictionaryOut != null) {
+                dictionaryOut.close();
+                dictionaryOut = null;
+            }
+        }
+        synchronized (entities) {
+            if (entityOut != null) {
+                entityOut.close();
+                entityOut = null;
+            }
+        }
+        stateLog.close();
+    }
+
+    @Override
+    public void delete() throws IOException {
+        close();
+        for (File f : new File[] {file, dictionaryFile, entityFile, stateLog.getFile()}) {
+            Files.deleteIfExists(f.toPath());
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link RollbackStore} which holds all records in memory and never touches
+ * the disk. Records do not survive a restart, so this store is best suited to
+ * short rounds in small arenas.
+ *
+ * @author Max Roncacé
+ */
+public class MemoryRollbackStore implements RollbackStore {
+
+    /**
+     * Orders records by the chunk column they fall within, and by descending ID
+     * within each chunk, matching the replay order of the other stores.
+     */
+    static final Comparator<RollbackRecord> CHUNK_ORDER = new Comparator<RollbackRecord>() {
+        @Override
+        public int compare(RollbackRecord a, RollbackRecord b) {
+            int cmp = Integer.compare((int) Math.floor(a.getLocation().getX()) >> 4,
+                    (int) Math.floor(b.getLocation().getX()) >> 4);
+            if (cmp == 0) {
+                cmp = Integer.compare((int) Math.floor(a.getLocation().getZ()) >> 4,
+                        (int) Math.floor(b.getLocation().getZ()) >> 4);
+            }
+            return cmp != 0 ? cmp : ID_ORDER.compare(a, b);
+        }
+    };
+
+    /**
+     * Orders records by descending ID.
+     */
+    static final Comparator<RollbackRecord> ID_ORDER = new Comparator<RollbackRecord>() {
+        @Override
+        public int compare(RollbackRecord a, RollbackRecord b) {
+            return Integer.compare(b.getId(), a.getId());
+        }
+    };
+
+    private final List<RollbackRecord> records = new ArrayList<>();
+    // serials are held compressed in memory
+    private final RollbackStateMap states = new RollbackStateMap((byte[]) null);
+
+    private int nextId = 1;
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void prepare() {
+    }
+
+    @Override
+    public boolean isJournaled() {
+        return false;
+    }
+
+    @Override
+    public synchronized int getRecordCount() {
+        return records.size();
+    }
+
+    @Override
+    public synchronized void write(List<RollbackRecord> batch) {
+        for (RollbackRecord record : batch) {
+            append(record);
+        }
+    }
+
+    @Override
+    public synchronized void append(RollbackRecord record) {
+        int id = nextId++;
+        records.add(RollbackRecord.copy(record, id, null));
+        if (record.getStateSerial() != null) {
+            states.putEncoded(id, states.encode(record.getStateSerial()));
+        }
+    }
+
+    /**
+     * Does nothing, as records are visible as soon as they are appended and
+     * are never durable.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public synchronized int getLastId() {
+        return nextId - 1;
+    }
+
+    @Override
+    public synchronized Cursor query(RollbackRecord.Type type, Map<Integer, String> states, int afterId) {
+        final List<RollbackRecord> matches = new ArrayList<>();
+        for (RollbackRecord record : records) {
+            if (record.getType() == type && record.getId() > afterId) {
+                matches.add(record);
+            }
+        }
+        Collections.sort(matches, type == RollbackRecord.Type.BLOCK_CHANGE ? CHUNK_ORDER : ID_ORDER);
+
+        // the given map is detached from the store, so it may be read without holding its lock
+        final Map<Integer, String> stateMap = states != null ? states : Collections.<Integer, String>emptyMap();
+        return new Cursor() {
+            private final Iterator<RollbackRecord> it = matches.iterator();
+
+            @Override
+            public RollbackRecord next() {
+                if (!it.hasNext()) {
+                    return null;
+                }
+                RollbackRecord record = it.next();
+                String serial = stateMap.get(record.getId());
+                return serial != null ? RollbackRecord.copy(record, record.getId(), serial) : record;
+            }
+
+            @Override
+            public int fill(RollbackRecordBatch batch) {
+                batch.clear();
+                batch.setStateMap(stateMap);
+                while (it.hasNext()) {
+                    RollbackRecord record = it.next();
+                    if (!batch.add(record, stateMap.containsKey(record.getId()))) {
+                        break;
+                    }
+                }
+                return batch.size();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public synchronized void truncate(int afterId) {
+        Iterator<RollbackRecord> it = records.iterator();
+        while (it.hasNext()) {
+            RollbackRecord record = it.next();
+            if (record.getId() > afterId) {
+                states.keySet().remove(record.getId()); // avoids decompressing the serial
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void compact(int beforeId) {
+        Set<String> seen = new HashSet<>();
+        Iterator<RollbackRecord> it = records.iterator(); // records are held in ascending order of ID
+        while (it.hasNext()) {
+            RollbackRecord record = it.next();
+            String key = record.getUuid() != null
+                    ? record.getUuid().toString()
+                    : record.getLocation().getWorld().orNull() + ":" + (int) record.getLocation().getX() + ":"
+                            + (int) record.getLocation().getY() + ":" + (int) record.getLocation().getZ();
+            if (!seen.add(key) && record.getId() < beforeId) {
+                states.keySet().remove(record.getId());
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized int pruneStates() {
+        Set<Integer> ids = new HashSet<>();
+        for (RollbackRecord record : records) {
+            ids.add(record.getId());
+        }
+        int size = states.size();
+        states.keySet().retainAll(ids);
+        return size - states.size();
+    }
+
+    /**
+     * Returns {@code 0}, as this store never touches the disk.
+     *
+     * @return {@code 0}
+     */
+    @Override
+    public long getSizeOnDisk() {
+        return 0;
+    }
+
+    @Override
+    public synchronized Map<Integer, String> loadStates() {
+        return new RollbackStateMap(states);
+    }
+
+    @Override
+    public synchronized void saveState(int id, String serial) {
+        states.putEncoded(id, states.encode(serial));
+    }
+
+    @Override
+    public synchronized void clearStates() {
+        states.clear();
+    }
+
+    @Override
+    public synchronized void clear() {
+        records.clear();
+        states.clear();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void delete() {
+        clear();
+    }
+
+}
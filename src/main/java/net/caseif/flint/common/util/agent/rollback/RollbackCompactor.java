@@ -0,0 +1,267 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.arena.Arena;
+import net.caseif.flint.common.CommonCore;
+import net.caseif.flint.common.arena.CommonArena;
+import net.caseif.flint.minigame.Minigame;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically compacts the rollback stores of each {@link Minigame} in the
+ * background and reports their size.
+ *
+ * <p>Arenas whose rounds end without being rolled back accumulate records
+ * over time. Each compaction pass discards records superseded by older records
+ * pertaining to the same block or entity, discards orphaned state serials,
+ * and returns free pages of the shared rollback database to the filesystem.
+ * A warning is logged for each store exceeding the size warning
+ * threshold.</p>
+ *
+ * @author Max Roncacé
+ */
+public class RollbackCompactor {
+
+    /**
+     * The default interval between compaction passes, in minutes.
+     */
+    public static final long DEFAULT_PERIOD_MINUTES = 30;
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Flint Rollback Compactor").setDaemon(true).build()
+    );
+
+    private static final Map<Minigame, ScheduledFuture<?>> TASKS = new HashMap<>();
+
+    private static volatile long sizeWarningThreshold = 256L * 1024 * 1024;
+
+    private RollbackCompactor() {
+    }
+
+    /**
+     * Schedules periodic compaction for the given {@link Minigame} at the
+     * default interval if it is not already scheduled.
+     *
+     * @param minigame The {@link Minigame} to schedule compaction for
+     */
+    public static synchronized void register(Minigame minigame) {
+        if (!TASKS.containsKey(minigame)) {
+            schedule(minigame, DEFAULT_PERIOD_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Schedules periodic compaction for the given {@link Minigame}, replacing
+     * any existing schedule. A period of {@code 0} disables periodic
+     * compaction.
+     *
+     * @param minigame The {@link Minigame} to schedule compaction for
+     * @param period The interval between compaction passes, or {@code 0} to
+     *     disable periodic compaction
+     * @param unit The unit of {@code period}
+     */
+    public static synchronized void schedule(final Minigame minigame, long period, TimeUnit unit) {
+        Preconditions.checkArgument(period >= 0, "Compaction period must be non-negative");
+        cancel(minigame);
+        if (period == 0) {
+            TASKS.put(minigame, null); // keeps register() from re-enabling it
+            return;
+        }
+        TASKS.put(minigame, EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact(minigame);
+                } catch (RuntimeException ex) {
+                    CommonCore.logSevere("Failed to compact rollback stores for minigame " + minigame.getPlugin());
+                    ex.printStackTrace();
+                }
+            }
+        }, period, period, unit));
+    }
+
+    /**
+     * Cancels periodic compaction for the given {@link Minigame}. A pass which
+     * is already running is allowed to finish.
+     *
+     * @param minigame The {@link Minigame} to cancel compaction for
+     */
+    public static synchronized void cancel(Minigame minigame) {
+        ScheduledFuture<?> task = TASKS.remove(minigame);
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the size in bytes above which a store is reported as oversized.
+     *
+     * @return The size warning threshold in bytes
+     */
+    public static long getSizeWarningThreshold() {
+        return sizeWarningThreshold;
+    }
+
+    /**
+     * Sets the size in bytes above which a store is reported as oversized, or
+     * {@code 0} to disable the warning.
+     *
+     * @param bytes The new size warning threshold in bytes
+     */
+    public static void setSizeWarningThreshold(long bytes) {
+        Preconditions.checkArgument(bytes >= 0, "Threshold must be non-negative");
+        sizeWarningThreshold = bytes;
+    }
+
+    /**
+     * Compacts the rollback stores of all arenas belonging to the given
+     * {@link Minigame} on the calling thread. Arenas which are being rolled
+     * back are skipped.
+     *
+     * <p>This may take a while for large stores and should not be invoked
+     * from the main server thread.</p>
+     *
+     * @param minigame The {@link Minigame} to compact the stores of
+     * @return A {@link Report} describing the stores after compaction
+     */
+    public static Report compact(Minigame minigame) {
+        ImmutableList.Builder<RollbackStats> stats = ImmutableList.builder();
+        boolean sqlite = false;
+        boolean rollingBack = false;
+        for (Arena arena : minigame.getArenas()) {
+            IRollbackAgent agent = ((CommonArena) arena).getRollbackAgent();
+            try {
+                try {
+                    stats.add(agent.compact());
+                } catch (IllegalStateException ex) {
+                    rollingBack = true; // try again next time
+                    stats.add(agent.getStats());
+                    continue;
+                }
+            } catch (IOException ex) {
+                CommonCore.logSevere("Failed to compact rollback store for arena " + arena.getId());
+                ex.printStackTrace();
+                continue;
+            }
+            sqlite |= agent.getStoreType() == RollbackStoreType.SQLITE;
+        }
+
+        RollbackConnectionHolder holder = RollbackConnectionHolder.getHolder(minigame);
+        long reclaimed = 0;
+        // open cursors would prevent the database from being vacuumed
+        if (sqlite && !rollingBack) {
+            synchronized (holder) {
+                try {
+                    reclaimed = holder.vacuum();
+                } catch (SQLException ex) {
+                    CommonCore.logWarning("Failed to vacuum rollback store for minigame " + minigame.getPlugin());
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        Report report = new Report(stats.build(), holder.getStoreFile().length(), reclaimed);
+        report.log(minigame);
+        return report;
+    }
+
+    /**
+     * Describes the rollback stores of a {@link Minigame} following a
+     * compaction pass.
+     */
+    public static class Report {
+
+        private final ImmutableList<RollbackStats> arenaStats;
+        private final long databaseSize;
+        private final long reclaimed;
+
+        private Report(ImmutableList<RollbackStats> arenaStats, long databaseSize, long reclaimed) {
+            this.arenaStats = arenaStats;
+            this.databaseSize = databaseSize;
+            this.reclaimed = reclaimed;
+        }
+
+        /**
+         * Returns the statistics of each arena's store.
+         *
+         * @return The statistics of each arena's store
+         */
+        public ImmutableList<RollbackStats> getArenaStats() {
+            return arenaStats;
+        }
+
+        /**
+         * Returns the size in bytes of the rollback database shared by all
+         * arenas of the minigame.
+         *
+         * @return The size of the shared rollback database in bytes
+         */
+        public long getDatabaseSize() {
+            return databaseSize;
+        }
+
+        /**
+         * Returns the number of bytes returned to the filesystem by vacuuming
+         * the shared rollback database.
+         *
+         * @return The number of bytes reclaimed
+         */
+        public long getReclaimedBytes() {
+            return reclaimed;
+        }
+
+        private void log(Minigame minigame) {
+            long threshold = sizeWarningThreshold;
+            for (RollbackStats stats : arenaStats) {
+                CommonCore.logVerbose("Rollback store for arena " + stats);
+                if (threshold > 0 && stats.getSizeOnDisk() > threshold) {
+                    CommonCore.logWarning("Rollback store for arena " + stats.getArenaId() + " occupies "
+                            + stats.getSizeOnDisk() + " bytes on disk");
+                }
+            }
+            CommonCore.logVerbose("Rollback database for minigame " + minigame.getPlugin() + " occupies "
+                    + databaseSize + " bytes (" + reclaimed + " reclaimed)");
+            if (threshold > 0 && databaseSize > threshold) {
+                CommonCore.logWarning("Rollback database for minigame " + minigame.getPlugin() + " occupies "
+                        + databaseSize + " bytes on disk");
+            }
+        }
+
+    }
+
+}
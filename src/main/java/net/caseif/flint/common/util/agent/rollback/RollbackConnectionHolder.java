@@ -0,0 +1,301 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.common.CommonCore;
+import net.caseif.flint.common.util.file.CommonDataFiles;
+import net.caseif.flint.minigame.Minigame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Holds a long-lived connection to the rollback store of a given
+ * {@link Minigame} along with a cache of {@link PreparedStatement}s for each
+ * arena table within it.
+ *
+ * <p>Callers must hold the monitor of the holder for as long as they use the
+ * connection or any statement obtained from it.</p>
+ *
+ * @author Max Roncacé
+ */
+public class RollbackConnectionHolder {
+
+    private static final String SQLITE_PROTOCOL = "jdbc:sqlite:";
+    private static final Properties SQL_QUERIES = new Properties();
+    private static final int INCREMENTAL_VACUUM = 2;
+
+    private static final Map<Minigame, RollbackConnectionHolder> HOLDERS = new HashMap<>();
+
+    private final File store;
+
+    private Connection connection;
+    // table -> query key -> statement
+    private final Map<String, Map<String, PreparedStatement>> statements = new HashMap<>();
+
+    static {
+        try (InputStream is = RollbackConnectionHolder.class.getResourceAsStream("/sql-queries.properties")) {
+            SQL_QUERIES.load(is);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to load SQL query strings", ex);
+        }
+    }
+
+    private RollbackConnectionHolder(File store) {
+        this.store = store;
+    }
+
+    /**
+     * Gets the {@link RollbackConnectionHolder} for the given
+     * {@link Minigame}, creating it if necessary.
+     *
+     * @param minigame The {@link Minigame} to get the holder for
+     * @return The {@link RollbackConnectionHolder} for the given
+     *     {@link Minigame}
+     */
+    public static synchronized RollbackConnectionHolder getHolder(Minigame minigame) {
+        RollbackConnectionHolder holder = HOLDERS.get(minigame);
+        if (holder == null) {
+            holder = new RollbackConnectionHolder(CommonDataFiles.ROLLBACK_STORE.getFile(minigame));
+            HOLDERS.put(minigame, holder);
+        }
+        return holder;
+    }
+
+    /**
+     * Closes and discards the {@link RollbackConnectionHolder} for the given
+     * {@link Minigame}, if one exists.
+     *
+     * @param minigame The {@link Minigame} to release the holder of
+     */
+    public static synchronized void release(Minigame minigame) {
+        RollbackConnectionHolder holder = HOLDERS.remove(minigame);
+        if (holder != null) {
+            holder.close();
+        }
+    }
+
+    /**
+     * Gets the raw SQL for the query with the given key. The table name is
+     * escaped for use as a quoted identifier, since it cannot be bound as a
+     * parameter.
+     *
+     * @param key The key of the query
+     * @param table The arena table the query should be run against
+     * @return The raw SQL for the query
+     */
+    static String getQuery(String key, String table) {
+        String sql = SQL_QUERIES.getProperty(key);
+        if (sql == null) {
+            throw new IllegalArgumentException("No SQL query with key " + key);
+        }
+        return sql.replace("{table}", table.replace("`", "``"));
+    }
+
+    /**
+     * Returns the file backing the rollback store.
+     *
+     * @return The file backing the rollback store
+     */
+    public File getStoreFile() {
+        return store;
+    }
+
+    /**
+     * Gets the connection to the rollback store, opening it if necessary.
+     *
+     * @return The connection to the rollback store
+     * @throws SQLException If an exception occurs while opening the connection
+     */
+    public synchronized Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            if (!store.exists()) {
+                try {
+                    //noinspection ResultOfMethodCallIgnored
+                    store.createNewFile();
+                } catch (IOException ex) {
+                    throw new SQLException("Failed to create rollback store", ex);
+                }
+            }
+            connection = DriverManager.getConnection(SQLITE_PROTOCOL + store.getAbsolutePath());
+            statements.clear();
+        }
+        return connection;
+    }
+
+    /**
+     * Gets a cached {@link PreparedStatement} for the query with the given key
+     * against the given arena table, preparing it if necessary.
+     *
+     * @param key The key of the query
+     * @param table The arena table the query should be run against
+     * @return The cached {@link PreparedStatement}
+     * @throws SQLException If an exception occurs while preparing the
+     *     statement
+     */
+    public synchronized PreparedStatement getStatement(String key, String table) throws SQLException {
+        Connection conn = getConnection();
+        Map<String, PreparedStatement> tableStatements = statements.get(table);
+        if (tableStatements == null) {
+            tableStatements = new HashMap<>();
+            statements.put(table, tableStatements);
+        }
+        PreparedStatement st = tableStatements.get(key);
+        if (st == null) {
+            st = key.startsWith("insert-")
+                    ? conn.prepareStatement(getQuery(key, table), Statement.RETURN_GENERATED_KEYS)
+                    : conn.prepareStatement(getQuery(key, table));
+            tableStatements.put(key, st);
+        }
+        return st;
+    }
+
+    /**
+     * Returns the total number of records held by all versioned arena tables
+     * within the rollback store.
+     *
+     * @return The total number of records within the rollback store
+     * @throws SQLException If an exception occurs while counting the records
+     */
+    public synchronized long countRecords() throws SQLException {
+        if (!store.exists()) {
+            return 0;
+        }
+        PreparedStatement query = getStatement("query-table", "");
+        query.setString(1, "flint_schema");
+        try (ResultSet rs = query.executeQuery()) {
+            if (!rs.next()) {
+                return 0; // no table has been created yet
+            }
+        }
+        List<String> tables = new ArrayList<>();
+        try (ResultSet rs = getStatement("get-schema-tables", "").executeQuery()) {
+            while (rs.next()) {
+                tables.add(rs.getString(1));
+            }
+        }
+        long count = 0;
+        for (String table : tables) {
+            try (ResultSet rs = getStatement("count-records", table).executeQuery()) {
+                count += rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes and evicts all cached statements against the given arena table.
+     * This must be invoked when the table is dropped or its schema changes.
+     *
+     * @param table The arena table to invalidate statements for
+     */
+    public synchronized void invalidate(String table) {
+        Map<String, PreparedStatement> tableStatements = statements.remove(table);
+        if (tableStatements != null) {
+            for (PreparedStatement st : tableStatements.values()) {
+                closeQuietly(st);
+            }
+        }
+    }
+
+    /**
+     * Returns pages freed by dropped tables and deleted records to the
+     * filesystem. The first time this is invoked on a database which does not
+     * use incremental auto-vacuuming, the database is switched over and fully
+     * vacuumed; subsequent invocations only run an incremental vacuum.
+     *
+     * @return The number of bytes reclaimed
+     * @throws SQLException If an exception occurs while vacuuming the database
+     */
+    public synchronized long vacuum() throws SQLException {
+        if (!store.exists()) {
+            return 0;
+        }
+        long before = store.length();
+        try (Statement st = getConnection().createStatement()) {
+            try (ResultSet rs = st.executeQuery(getQuery("get-auto-vacuum", ""))) {
+                if (rs.next() && rs.getInt(1) != INCREMENTAL_VACUUM) {
+                    st.execute(getQuery("set-auto-vacuum", ""));
+                    st.execute(getQuery("vacuum", "")); // required for the new mode to take effect
+                    return before - store.length();
+                }
+            }
+            try (ResultSet rs = st.executeQuery(getQuery("get-freelist-count", ""))) {
+                if (!rs.next() || rs.getInt(1) == 0) {
+                    return 0; // nothing to reclaim
+                }
+            }
+            // each step of the pragma frees a single page - execute() only steps once, whereas executeUpdate() runs
+            // the statement to completion (the driver won't return a result set for it)
+            st.executeUpdate(getQuery("incremental-vacuum", ""));
+        }
+        return before - store.length();
+    }
+
+    /**
+     * Closes the connection held by this {@link RollbackConnectionHolder}
+     * along with all cached statements.
+     */
+    public synchronized void close() {
+        Iterator<String> it = statements.keySet().iterator();
+        while (it.hasNext()) {
+            for (PreparedStatement st : statements.get(it.next()).values()) {
+                closeQuietly(st);
+            }
+            it.remove();
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                CommonCore.logWarning("Failed to close connection to rollback store " + store.getName());
+                ex.printStackTrace();
+            }
+            connection = null;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement st) {
+        try {
+            st.close();
+        } catch (SQLException ignored) {
+            // not much we can do about it
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * In-memory index of the blocks and entities which have already been recorded
+ * for a given arena, allowing redundant {@link RollbackRecord}s to be rejected
+ * without consulting the rollback store.
+ *
+ * <p>Block positions are packed into {@code long}s on a per-world basis.</p>
+ *
+ * @author Max Roncacé
+ */
+public class RollbackIndex {
+
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+
+    private final Map<String, Set<Long>> blocks = new HashMap<>();
+    private final Set<UUID> entities = new HashSet<>();
+
+    /**
+     * Packs the given block coordinates into a single {@code long}.
+     *
+     * @param x The x-coordinate of the block
+     * @param y The y-coordinate of the block
+     * @param z The z-coordinate of the block
+     * @return The packed coordinates
+     */
+    public static long pack(int x, int y, int z) {
+        return ((x & XZ_MASK) << (XZ_BITS + Y_BITS)) | ((z & XZ_MASK) << Y_BITS) | (y & Y_MASK);
+    }
+
+    /**
+     * Attempts to mark the subject of the given {@link RollbackRecord} as
+     * recorded.
+     *
+     * @param world The world the record pertains to
+     * @param record The {@link RollbackRecord} to mark
+     * @return {@code true} if the record should be stored; {@code false} if
+     *     its subject has already been recorded
+     */
+    public synchronized boolean mark(String world, RollbackRecord record) {
+        switch (record.getType()) {
+            case BLOCK_CHANGE:
+                return markBlock(world, (int) record.getLocation().getX(), (int) record.getLocation().getY(),
+                        (int) record.getLocation().getZ());
+            case ENTITY_CREATION:
+                // entity creations are always recorded, but they still preclude later changes to the same entity
+                entities.add(record.getUuid());
+                return true;
+            case ENTITY_CHANGE:
+                return entities.add(record.getUuid());
+            default:
+                throw new AssertionError("Undefined record type");
+        }
+    }
+
+    /**
+     * Attempts to mark the block at the given position as recorded.
+     *
+     * @param world The world containing the block
+     * @param x The x-coordinate of the block
+     * @param y The y-coordinate of the block
+     * @param z The z-coordinate of the block
+     * @return {@code true} if the block was not previously marked
+     */
+    public synchronized boolean markBlock(String world, int x, int y, int z) {
+        Set<Long> worldBlocks = blocks.get(world);
+        if (worldBlocks == null) {
+            worldBlocks = new HashSet<>();
+            blocks.put(world, worldBlocks);
+        }
+        return worldBlocks.add(pack(x, y, z));
+    }
+
+    /**
+     * Attempts to mark the entity with the given {@link UUID} as recorded.
+     *
+     * @param uuid The {@link UUID} of the entity
+     * @return {@code true} if the entity was not previously marked
+     */
+    public synchronized boolean markEntity(UUID uuid) {
+        return entities.add(uuid);
+    }
+
+    /**
+     * Returns the total number of subjects in this index.
+     *
+     * @return The total number of subjects in this index
+     */
+    public synchronized int size() {
+        int size = entities.size();
+        for (Set<Long> worldBlocks : blocks.values()) {
+            size += worldBlocks.size();
+        }
+        return size;
+    }
+
+    /**
+     * Clears this index.
+     */
+    public synchronized void clear() {
+        blocks.clear();
+        entities.clear();
+    }
+
+}
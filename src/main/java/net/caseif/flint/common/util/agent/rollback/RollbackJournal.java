@@ -0,0 +1,267 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import net.caseif.flint.common.CommonCore;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind journal which buffers {@link RollbackRecord}s in memory and
+ * periodically flushes them to the backing rollback store of a
+ * {@link CommonRollbackAgent} in batched transactions.
+ *
+ * <p>Records which pertain to a subject already present in the buffer are
+ * collapsed, since only the original state of a given block or entity is
+ * required in order to roll it back.</p>
+ *
+ * @author Max Roncacé
+ */
+public class RollbackJournal {
+
+    /**
+     * The default interval in milliseconds between background flushes.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    /**
+     * The default maximum number of records written per transaction.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 512;
+
+    private static final ScheduledExecutorService FLUSH_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Flint Rollback Journal").setDaemon(true).build()
+    );
+
+    private final CommonRollbackAgent agent;
+
+    private final Object flushLock = new Object();
+
+    private LinkedHashMap<String, RollbackRecord> pending = new LinkedHashMap<>();
+
+    private long flushInterval;
+    private int batchSize;
+
+    private ScheduledFuture<?> flushTask;
+    private boolean flushQueued;
+
+    RollbackJournal(CommonRollbackAgent agent) {
+        this.agent = agent;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        setFlushInterval(DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Gets the interval in milliseconds between background flushes of this
+     * journal.
+     *
+     * @return The interval in milliseconds between background flushes
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets the interval in milliseconds between background flushes of this
+     * journal.
+     *
+     * @param flushInterval The interval in milliseconds between background
+     *     flushes
+     */
+    public synchronized void setFlushInterval(long flushInterval) {
+        checkArgument(flushInterval > 0, "Flush interval must be positive");
+        this.flushInterval = flushInterval;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        flushTask = FLUSH_EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the maximum number of records which will be written to the store in
+     * a single transaction.
+     *
+     * <p>Reaching this many buffered records additionally triggers an early
+     * background flush.</p>
+     *
+     * @return The maximum number of records per transaction
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of records which will be written to the store in
+     * a single transaction.
+     *
+     * @param batchSize The maximum number of records per transaction
+     */
+    public synchronized void setBatchSize(int batchSize) {
+        checkArgument(batchSize > 0, "Batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the number of records currently buffered by this journal.
+     *
+     * @return The number of records currently buffered
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Appends the given {@link RollbackRecord} to this journal.
+     *
+     * @param record The {@link RollbackRecord} to append
+     */
+    synchronized void append(RollbackRecord record) {
+        String key = getKey(record);
+        if (!pending.containsKey(key)) { // the first record for a given subject is the one we want
+            pending.put(key, record);
+        }
+
+        if (pending.size() >= batchSize && !flushQueued) {
+            flushQueued = true;
+            FLUSH_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            });
+        }
+    }
+
+    /**
+     * Synchronously writes all buffered records to the backing store.
+     *
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            List<RollbackRecord> records = drain();
+            for (int i = 0; i < records.size(); i += batchSize) {
+                List<RollbackRecord> batch = records.subList(i, Math.min(i + batchSize, records.size()));
+                try {
+                    agent.writeRecords(batch);
+                } catch (IOException ex) {
+                    requeue(records.subList(i, records.size()));
+                    throw ex;
+                }
+            }
+            agent.flushStore(); // commits records appended to the store directly
+        }
+    }
+
+    /**
+     * Returns the lock held while this journal is flushing.
+     *
+     * <p>Holding this lock guarantees that no records will be written to the
+     * backing store by this journal until it is released.</p>
+     *
+     * @return The lock held while this journal is flushing
+     */
+    Object getFlushLock() {
+        return flushLock;
+    }
+
+    /**
+     * Discards all buffered records without writing them.
+     */
+    synchronized void discard() {
+        pending = new LinkedHashMap<>();
+    }
+
+    /**
+     * Cancels the background flush task of this journal.
+     */
+    synchronized void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+    }
+
+    private synchronized List<RollbackRecord> drain() {
+        flushQueued = false;
+        List<RollbackRecord> records = new ArrayList<>(pending.values());
+        pending = new LinkedHashMap<>();
+        return records;
+    }
+
+    // puts records which failed to be written back at the front of the buffer
+    private synchronized void requeue(List<RollbackRecord> records) {
+        LinkedHashMap<String, RollbackRecord> newPending = new LinkedHashMap<>();
+        for (RollbackRecord record : records) {
+            newPending.put(getKey(record), record);
+        }
+        for (Map.Entry<String, RollbackRecord> entry : pending.entrySet()) {
+            if (!newPending.containsKey(entry.getKey())) {
+                newPending.put(entry.getKey(), entry.getValue());
+            }
+        }
+        pending = newPending;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException ex) {
+            CommonCore.logSevere("Failed to flush rollback journal for arena " + agent.getArena().getId());
+            ex.printStackTrace();
+        }
+    }
+
+    private String getKey(RollbackRecord record) {
+        switch (record.getType()) {
+            case BLOCK_CHANGE:
+                return "b:" + agent.getWorld(record) + ":" + (int) record.getLocation().getX() + ":"
+                        + (int) record.getLocation().getY() + ":" + (int) record.getLocation().getZ();
+            case ENTITY_CREATION:
+                return "n:" + record.getUuid();
+            case ENTITY_CHANGE:
+                return "e:" + record.getUuid();
+            default:
+                throw new AssertionError("Undefined record type");
+        }
+    }
+
+}
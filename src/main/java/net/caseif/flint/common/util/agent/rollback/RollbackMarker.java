@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.common.CommonCore;
+import net.caseif.flint.util.physical.Location3D;
+
+import com.google.common.base.Charsets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Write-ahead marker recording that a rollback of an arena is underway.
+ *
+ * <p>The marker is written before any record is restored and deleted once
+ * the rollback has fully completed. Entity changes are restored a tick after
+ * the store has been cleared, so they are written to the marker beforehand,
+ * along with the ID after which records have been restored; if the server
+ * halts while the records are being discarded, the entity changes can still
+ * be restored on the next startup without restoring the same records again.
+ * Once the records have been discarded, the store only holds records which
+ * have yet to be restored, so the marker reverts to its initial phase. A
+ * rollback which was interrupted in that phase is simply run again.</p>
+ *
+ * @author Max Roncacé
+ */
+class RollbackMarker {
+
+    private static final int MAGIC = 0x464C524D; // "FLRM"
+
+    private static final byte PHASE_REPLAYING = 1;
+    private static final byte PHASE_PENDING_ENTITY_CHANGES = 2;
+
+    private final File file;
+
+    RollbackMarker(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns whether a marker is present, i.e. whether a rollback was
+     * started but not completed.
+     *
+     * @return Whether a marker is present
+     */
+    boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Durably records that a rollback is about to begin, along with any
+     * entity changes still pending from earlier rollbacks.
+     *
+     * @param pending The entity change records which remain to be restored
+     * @throws IOException If an exception occurs while writing the marker
+     */
+    void begin(List<RollbackRecord> pending) throws IOException {
+        write(PHASE_REPLAYING, -1, pending);
+    }
+
+    /**
+     * Durably records that all records with IDs greater than the given ID
+     * have been restored and are about to be discarded, along with the entity
+     * changes which remain to be restored afterward.
+     *
+     * @param afterId The ID after which all records have been restored
+     * @param pending The entity change records which remain to be restored
+     * @throws IOException If an exception occurs while writing the marker
+     */
+    void pending(int afterId, List<RollbackRecord> pending) throws IOException {
+        write(PHASE_PENDING_ENTITY_CHANGES, afterId, pending);
+    }
+
+    /**
+     * Reads the ID after which all records had been restored when the marker
+     * was last written.
+     *
+     * @return The ID after which all records had been restored, or {@code -1}
+     *     if the rollback was interrupted before all of its records were
+     *     restored or no marker is present
+     * @throws IOException If an exception occurs while reading the marker
+     */
+    int readRestoredAfter() throws IOException {
+        if (!file.exists()) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != PHASE_PENDING_ENTITY_CHANGES) {
+                return -1;
+            }
+            return in.readInt();
+        } catch (EOFException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the entity changes which were pending when the marker was last
+     * written.
+     *
+     * @return The pending entity change records, in the order they should be
+     *     restored
+     * @throws IOException If an exception occurs while reading the marker
+     */
+    List<RollbackRecord> readPending() throws IOException {
+        List<RollbackRecord> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                CommonCore.logWarning("Rollback marker " + file.getName() + " is corrupt - ignoring pending entity "
+                        + "changes");
+                return records;
+            }
+            in.readByte(); // phase
+            in.readInt(); // restored ID
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                String world = in.readUTF();
+                int x = in.readInt();
+                int y = in.readInt();
+                int z = in.readInt();
+                String type = in.readUTF();
+                String state = null;
+                if (in.readBoolean()) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    state = new String(bytes, Charsets.UTF_8);
+                }
+                records.add(RollbackRecord.createEntityChangeRecord(id, uuid,
+                        new Location3D(world.isEmpty() ? null : world, x, y, z), type, state));
+            }
+        } catch (EOFException ex) {
+            CommonCore.logWarning("Rollback marker " + file.getName() + " is truncated - ignoring pending entity "
+                    + "changes");
+            records.clear();
+        }
+        return records;
+    }
+
+    /**
+     * Deletes the marker, signifying that the rollback has completed.
+     *
+     * @throws IOException If the marker could not be deleted
+     */
+    void delete() throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete rollback marker " + file.getName());
+        }
+    }
+
+    // writes the marker to a temporary file and atomically moves it into place, so that a partial write never
+    // replaces it
+    private void write(byte phase, int afterId, List<RollbackRecord> records) throws IOException {
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Failed to create directory " + file.getParentFile().getPath());
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeByte(phase);
+            out.writeInt(afterId);
+            out.writeInt(records.size());
+            for (RollbackRecord record : records) {
+                out.writeInt(record.getId());
+                out.writeLong(record.getUuid().getMostSignificantBits());
+                out.writeLong(record.getUuid().getLeastSignificantBits());
+                out.writeUTF(record.getLocation().getWorld().or(""));
+                out.writeInt((int) record.getLocation().getX());
+                out.writeInt((int) record.getLocation().getY());
+                out.writeInt((int) record.getLocation().getZ());
+                out.writeUTF(record.getTypeData());
+                out.writeBoolean(record.getStateSerial() != null);
+                if (record.getStateSerial() != null) {
+                    byte[] bytes = record.getStateSerial().getBytes(Charsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads and decodes the records of each type from a {@link RollbackStore} on
+ * a shared thread pool, so that the thread applying them may begin
+ * restoring blocks as soon as the first page has been decoded.
+ *
+ * <p>Each record type is read by its own task into a small ring of
+ * {@link RollbackRecordBatch}es, preserving the order defined by
+ * {@link RollbackStore#query(RollbackRecord.Type, Map, int)}. Batches
+ * must be handed back via {@link #release(RollbackRecord.Type,
+ * RollbackRecordBatch)} once they have been applied.</p>
+ *
+ * @author Max Roncacé
+ */
+class RollbackPipeline implements Closeable {
+
+    /**
+     * The number of batches buffered ahead of the consumer per record type.
+     */
+    private static final int DEPTH = 4;
+
+    // stage tasks block while their consumer catches up, so each needs a thread of its own - a bounded pool could
+    // leave a stage queued behind blocked ones
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("Flint Rollback Pipeline %d").setDaemon(true).build()
+    );
+
+    private final Map<RollbackRecord.Type, Stage> stages = new EnumMap<>(RollbackRecord.Type.class);
+
+    private volatile boolean closed;
+
+    /**
+     * Begins reading all records with IDs greater than {@code afterId} from
+     * the given store.
+     *
+     * @param store The store to read records from
+     * @param afterId The ID after which records should be read
+     * @param batchSize The capacity of each batch
+     */
+    RollbackPipeline(final RollbackStore store, int afterId, int batchSize) {
+        // loaded once in the background and shared by all stages, as it may involve reading the entire state log
+        Future<Map<Integer, String>> states = POOL.submit(new Callable<Map<Integer, String>>() {
+            @Override
+            public Map<Integer, String> call() throws IOException {
+                return store.loadStates();
+            }
+        });
+        for (RollbackRecord.Type type : RollbackRecord.Type.values()) {
+            Stage stage = new Stage(store, states, type, afterId, batchSize);
+            stages.put(type, stage);
+            stage.future = POOL.submit(stage);
+        }
+    }
+
+    /**
+     * Returns the next decoded batch of records of the given type, blocking
+     * until it is available.
+     *
+     * @param type The type of records to return
+     * @return The next batch, or {@code null} if all records of the given type
+     *     have been returned
+     * @throws IOException If an exception occurred while reading the records
+     */
+    RollbackRecordBatch next(RollbackRecord.Type type) throws IOException {
+        Stage stage = stages.get(type);
+        if (stage.exhausted) {
+            return null;
+        }
+        RollbackRecordBatch batch;
+        try {
+            batch = stage.full.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading rollback records", ex);
+        }
+        if (batch.size() == 0) {
+            stage.exhausted = true;
+            if (stage.error != null) {
+                Throwables.propagateIfInstanceOf(stage.error, IOException.class);
+                throw Throwables.propagate(stage.error);
+            }
+            return null;
+        }
+        return batch;
+    }
+
+    /**
+     * Hands the given batch back to the pipeline for reuse.
+     *
+     * @param type The type of records the batch was returned for
+     * @param batch The batch to release
+     */
+    void release(RollbackRecord.Type type, RollbackRecordBatch batch) {
+        stages.get(type).free.offer(batch);
+    }
+
+    /**
+     * Stops reading and waits for all cursors to be closed, so that the store
+     * may be safely modified afterward.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        IOException failure = null;
+        for (Stage stage : stages.values()) {
+            // unblock the task if it's waiting for a free batch
+            stage.free.offer(new RollbackRecordBatch(1));
+            try {
+                stage.future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while closing rollback pipeline", ex);
+            } catch (ExecutionException ex) {
+                failure = new IOException("Failed to close rollback cursor", ex.getCause());
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private class Stage implements Runnable {
+
+        private final RollbackStore store;
+        private final Future<Map<Integer, String>> states;
+        private final RollbackRecord.Type type;
+        private final int afterId;
+
+        private final BlockingQueue<RollbackRecordBatch> free = new ArrayBlockingQueue<>(DEPTH + 1);
+        // one extra slot so that the terminating batch never blocks
+        private final BlockingQueue<RollbackRecordBatch> full = new ArrayBlockingQueue<>(DEPTH + 1);
+
+        private Future<?> future;
+        private volatile Throwable error;
+        private boolean exhausted; // accessed only by the consumer
+
+        private Stage(RollbackStore store, Future<Map<Integer, String>> states, RollbackRecord.Type type, int afterId,
+                int batchSize) {
+            this.store = store;
+            this.states = states;
+            this.type = type;
+            this.afterId = afterId;
+            for (int i = 0; i < DEPTH; i++) {
+                free.add(new RollbackRecordBatch(batchSize));
+            }
+        }
+
+        @Override
+        public void run() {
+            try (RollbackStore.Cursor cursor = store.query(type, states.get(), afterId)) {
+                while (!closed) {
+                    RollbackRecordBatch batch = free.take();
+                    if (closed || cursor.fill(batch) == 0) {
+                        break;
+                    }
+                    full.put(batch);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                error = ex;
+            } catch (ExecutionException ex) {
+                error = ex.getCause();
+            } catch (IOException | RuntimeException ex) {
+                error = ex;
+            } finally {
+                // an empty batch signals the end of the stream
+                full.offer(new RollbackRecordBatch(1));
+            }
+        }
+
+    }
+
+}
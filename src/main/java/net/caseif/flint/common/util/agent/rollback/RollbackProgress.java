@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+/**
+ * Tracks the progress of an incremental rollback started via
+ * {@link IRollbackAgent#popRollbacksIncrementally(int, long, Runnable)}.
+ *
+ * @author Max Roncacé
+ */
+public class RollbackProgress {
+
+    private final int total;
+
+    private volatile int processed;
+    private volatile boolean complete;
+    private volatile boolean failed;
+
+    RollbackProgress(int total) {
+        this.total = total;
+    }
+
+    /**
+     * Returns the total number of records to be rolled back.
+     *
+     * @return The total number of records to be rolled back
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of records which have been rolled back so far.
+     *
+     * @return The number of records which have been rolled back so far
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Returns the fraction of records which have been rolled back so far, in
+     * the range {@code [0, 1]}.
+     *
+     * @return The fraction of records which have been rolled back so far
+     */
+    public float getFraction() {
+        return complete || total == 0 ? 1f : Math.min((float) processed / total, 1f);
+    }
+
+    /**
+     * Returns whether the rollback has finished, whether successfully or not.
+     *
+     * @return Whether the rollback has finished
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns whether the rollback was aborted due to an error. Records which
+     * were not rolled back remain in the store.
+     *
+     * @return Whether the rollback was aborted due to an error
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    void increment() {
+        processed++;
+    }
+
+    void complete(boolean failed) {
+        this.failed = failed;
+        this.complete = true;
+    }
+
+}
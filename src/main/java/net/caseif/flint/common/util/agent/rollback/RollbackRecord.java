@@ -62,7 +62,20 @@ public class RollbackRecord {
 
     public static RollbackRecord createEntityChangeRecord(int id, UUID uuid, Location3D loc, String type,
                                                           String stateSerial) {
-        return new RollbackRecord(id, uuid, loc, type, 0, stateSerial, Type.BLOCK_CHANGE);
+        return new RollbackRecord(id, uuid, loc, type, 0, stateSerial, Type.ENTITY_CHANGE);
+    }
+
+    /**
+     * Creates a copy of the given record with the given ID and state serial.
+     *
+     * @param record The record to copy
+     * @param id The ID of the new record
+     * @param stateSerial The state serial of the new record
+     * @return The new record
+     */
+    static RollbackRecord copy(RollbackRecord record, int id, String stateSerial) {
+        return new RollbackRecord(id, record.uuid, record.location, record.type, record.data, stateSerial,
+                record.recordType);
     }
 
     public int getId() {
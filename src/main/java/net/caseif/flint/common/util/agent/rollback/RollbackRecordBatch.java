@@ -0,0 +1,369 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.util.physical.Location3D;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reusable, column-oriented buffer of {@link RollbackRecord}s.
+ *
+ * <p>Coordinates and other scalar fields are held in primitive arrays, while
+ * world names and types are interned into a dictionary which is retained
+ * across refills, so that a batch does not retain any objects per record and
+ * may be iterated without allocating. Whether filling a batch allocates
+ * depends on the store: stores which keep their strings in memory hand over
+ * the instances they already hold, whereas a database driver usually
+ * materializes a new string for each column it reads, which is discarded as
+ * soon as it has been interned. State serials are only looked up when
+ * requested.</p>
+ *
+ * <p>{@link RollbackRecord}s may still be materialized on demand via
+ * {@link #get(int)}.</p>
+ *
+ * @author Max Roncacé
+ */
+public class RollbackRecordBatch {
+
+    private static final RollbackRecord.Type[] TYPES = RollbackRecord.Type.values();
+
+    private final int[] ids;
+    private final byte[] recordTypes;
+    private final int[] worlds;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] zs;
+    private final long[] uuidMost;
+    private final long[] uuidLeast;
+    private final int[] types;
+    private final int[] data;
+    private final boolean[] states;
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> reverseDictionary = new ArrayList<>();
+
+    private Map<Integer, String> stateMap = Collections.emptyMap();
+    private int size;
+
+    /**
+     * Constructs a new {@link RollbackRecordBatch} with the given capacity.
+     *
+     * @param capacity The maximum number of records the batch may hold
+     */
+    public RollbackRecordBatch(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+        this.ids = new int[capacity];
+        this.recordTypes = new byte[capacity];
+        this.worlds = new int[capacity];
+        this.xs = new int[capacity];
+        this.ys = new int[capacity];
+        this.zs = new int[capacity];
+        this.uuidMost = new long[capacity];
+        this.uuidLeast = new long[capacity];
+        this.types = new int[capacity];
+        this.data = new int[capacity];
+        this.states = new boolean[capacity];
+        intern(null); // reserve index 0 for absent values
+    }
+
+    /**
+     * Returns the number of records in this batch.
+     *
+     * @return The number of records in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of records this batch may hold.
+     *
+     * @return The capacity of this batch
+     */
+    public int capacity() {
+        return ids.length;
+    }
+
+    /**
+     * Returns whether this batch has reached its capacity.
+     *
+     * @return Whether this batch is full
+     */
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    /**
+     * Removes all records from this batch. Interned strings are retained.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the ID of the record at the given index.
+     *
+     * @param i The index of the record
+     * @return The ID of the record
+     */
+    public int getId(int i) {
+        return ids[checkIndex(i)];
+    }
+
+    /**
+     * Returns the type of the record at the given index.
+     *
+     * @param i The index of the record
+     * @return The type of the record
+     */
+    public RollbackRecord.Type getType(int i) {
+        return TYPES[recordTypes[checkIndex(i)]];
+    }
+
+    /**
+     * Returns the name of the world containing the record at the given index.
+     *
+     * @param i The index of the record
+     * @return The world of the record
+     */
+    public String getWorld(int i) {
+        return reverseDictionary.get(worlds[checkIndex(i)]);
+    }
+
+    /**
+     * Returns the x-coordinate of the record at the given index.
+     *
+     * @param i The index of the record
+     * @return The x-coordinate of the record
+     */
+    public int getX(int i) {
+        return xs[checkIndex(i)];
+    }
+
+    /**
+     * Returns the y-coordinate of the record at the given index.
+     *
+     * @param i The index of the record
+     * @return The y-coordinate of the record
+     */
+    public int getY(int i) {
+        return ys[checkIndex(i)];
+    }
+
+    /**
+     * Returns the z-coordinate of the record at the given index.
+     *
+     * @param i The index of the record
+     * @return The z-coordinate of the record
+     */
+    public int getZ(int i) {
+        return zs[checkIndex(i)];
+    }
+
+    /**
+     * Returns the UUID of the entity the record at the given index pertains
+     * to, or {@code null} for block records. Note that this allocates a new
+     * {@link UUID}.
+     *
+     * @param i The index of the record
+     * @return The UUID of the record's entity, or {@code null}
+     */
+    public UUID getUuid(int i) {
+        return recordTypes[checkIndex(i)] != RollbackRecord.Type.BLOCK_CHANGE.ordinal()
+                ? new UUID(uuidMost[i], uuidLeast[i])
+                : null;
+    }
+
+    /**
+     * Returns the type data (e.g. the block or entity type) of the record at
+     * the given index.
+     *
+     * @param i The index of the record
+     * @return The type data of the record
+     */
+    public String getTypeData(int i) {
+        return reverseDictionary.get(types[checkIndex(i)]);
+    }
+
+    /**
+     * Returns the block data of the record at the given index.
+     *
+     * @param i The index of the record
+     * @return The block data of the record
+     */
+    public int getData(int i) {
+        return data[checkIndex(i)];
+    }
+
+    /**
+     * Returns whether the record at the given index carries a state serial.
+     *
+     * @param i The index of the record
+     * @return Whether the record carries a state serial
+     */
+    public boolean hasState(int i) {
+        return states[checkIndex(i)];
+    }
+
+    /**
+     * Returns the state serial of the record at the given index, or
+     * {@code null} if it does not carry one or states were not loaded.
+     *
+     * @param i The index of the record
+     * @return The state serial of the record, or {@code null}
+     */
+    public String getStateSerial(int i) {
+        return states[checkIndex(i)] ? stateMap.get(ids[i]) : null;
+    }
+
+    /**
+     * Materializes the record at the given index as a {@link RollbackRecord}.
+     *
+     * @param i The index of the record
+     * @return The record at the given index
+     */
+    public RollbackRecord get(int i) {
+        switch (getType(i)) {
+            case BLOCK_CHANGE:
+                return RollbackRecord.createBlockRecord(ids[i], new Location3D(getWorld(i), xs[i], ys[i], zs[i]),
+                        getTypeData(i), data[i], getStateSerial(i));
+            case ENTITY_CREATION:
+                return RollbackRecord.createEntityCreationRecord(ids[i], getUuid(i), getWorld(i));
+            case ENTITY_CHANGE:
+                return RollbackRecord.createEntityChangeRecord(ids[i], getUuid(i),
+                        new Location3D(getWorld(i), xs[i], ys[i], zs[i]), getTypeData(i), getStateSerial(i));
+            default:
+                throw new AssertionError("Undefined record type");
+        }
+    }
+
+    /**
+     * Sets the map state serials are looked up from. The map is read without
+     * any synchronization, so it must not be modified while this batch is in
+     * use - stores should pass a map which is detached from their own state.
+     *
+     * @param stateMap A map of record IDs to state serials
+     */
+    void setStateMap(Map<Integer, String> stateMap) {
+        this.stateMap = stateMap;
+    }
+
+    /**
+     * Interns the given string into the dictionary of this batch.
+     *
+     * @param value The string to intern, or {@code null}
+     * @return The dictionary index of the string
+     */
+    int intern(String value) {
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = reverseDictionary.size();
+            dictionary.put(value, index);
+            reverseDictionary.add(value);
+        }
+        return index;
+    }
+
+    /**
+     * Appends a record to this batch. Strings must have been interned via
+     * {@link #intern(String)}.
+     *
+     * @return Whether the batch has room for more records
+     */
+    boolean add(int id, RollbackRecord.Type type, int world, int x, int y, int z, long uuidMost,
+            long uuidLeast, int typeData, int data, boolean hasState) {
+        Preconditions.checkState(!isFull(), "Batch is full");
+        ids[size] = id;
+        recordTypes[size] = (byte) type.ordinal();
+        worlds[size] = world;
+        xs[size] = x;
+        ys[size] = y;
+        zs[size] = z;
+        this.uuidMost[size] = uuidMost;
+        this.uuidLeast[size] = uuidLeast;
+        types[size] = typeData;
+        this.data[size] = data;
+        states[size] = hasState;
+        return ++size < ids.length;
+    }
+
+    /**
+     * Appends the given record to this batch.
+     *
+     * @param record The record to append
+     * @param hasState Whether the record carries a state serial
+     * @return Whether the batch has room for more records
+     */
+    boolean add(RollbackRecord record, boolean hasState) {
+        UUID uuid = record.getUuid();
+        return add(record.getId(), record.getType(), intern(record.getLocation().getWorld().orNull()),
+                (int) record.getLocation().getX(), (int) record.getLocation().getY(),
+                (int) record.getLocation().getZ(),
+                uuid != null ? uuid.getMostSignificantBits() : 0, uuid != null ? uuid.getLeastSignificantBits() : 0,
+                intern(record.getTypeData()), record.getData(), hasState);
+    }
+
+    /**
+     * Parses the most or least significant bits of a UUID in its canonical
+     * string form without allocating.
+     *
+     * @param uuid The UUID string
+     * @param most Whether to parse the most significant bits
+     * @return The requested bits of the UUID
+     */
+    static long parseUuidBits(String uuid, boolean most) {
+        if (uuid.length() != 36) {
+            UUID parsed = UUID.fromString(uuid); // non-canonical form
+            return most ? parsed.getMostSignificantBits() : parsed.getLeastSignificantBits();
+        }
+        long bits = 0;
+        for (int i = most ? 0 : 19; i < (most ? 18 : 36); i++) {
+            char c = uuid.charAt(i);
+            if (c == '-') {
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid UUID string: " + uuid);
+            }
+            bits = (bits << 4) | digit;
+        }
+        return bits;
+    }
+
+    private int checkIndex(int i) {
+        Preconditions.checkElementIndex(i, size);
+        return i;
+    }
+
+}
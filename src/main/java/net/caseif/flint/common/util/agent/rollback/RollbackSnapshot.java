@@ -0,0 +1,264 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.util.physical.Boundary;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed per-chunk snapshot of an arena's {@link Boundary}, along with the
+ * number of block changes recorded in each chunk since it was captured.
+ *
+ * <p>The contents of each chunk are opaque to Flint and are provided by the
+ * platform. Each chunk is stored in its own deflated file, and the snapshot is
+ * only considered usable once all chunks have been written.</p>
+ *
+ * @author Max Roncacé
+ */
+class RollbackSnapshot {
+
+    private static final String COMPLETE_FILE = "complete";
+
+    private final File dir;
+
+    // chunk key -> number of distinct blocks changed
+    private final Map<Long, Integer> changes = new HashMap<>();
+    // packed positions of the blocks counted in the above map; guarded by the same lock
+    private final Set<Long> changedBlocks = new HashSet<>();
+    // whether changes are being counted, i.e. whether a snapshot has been or is being captured
+    private volatile boolean tracking;
+
+    RollbackSnapshot(File dir) {
+        this.dir = dir;
+        this.tracking = isAvailable();
+    }
+
+    static long getChunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns whether a complete snapshot is present.
+     *
+     * @return Whether a complete snapshot is present
+     */
+    boolean isAvailable() {
+        return new File(dir, COMPLETE_FILE).exists();
+    }
+
+    /**
+     * Begins counting changes against a snapshot which is about to be
+     * captured.
+     */
+    void begin() {
+        tracking = true;
+    }
+
+    /**
+     * Returns whether changes are being counted against a snapshot.
+     *
+     * @return Whether changes are being counted
+     */
+    boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * Compresses and writes the given contents of a chunk.
+     *
+     * @param chunkX The x-coordinate of the chunk
+     * @param chunkZ The z-coordinate of the chunk
+     * @param data The contents of the chunk
+     * @throws IOException If an exception occurs while writing the chunk
+     */
+    void write(int chunkX, int chunkZ, byte[] data) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory " + dir.getPath());
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileOutputStream fos = new FileOutputStream(getFile(chunkX, chunkZ))) {
+            DeflaterOutputStream out = new DeflaterOutputStream(new BufferedOutputStream(fos), deflater);
+            out.write(data);
+            out.finish();
+            out.flush();
+            // the chunk must be durable before the snapshot can be marked as complete
+            fos.getFD().sync();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Marks the snapshot as complete. All chunks must have been written
+     * beforehand.
+     *
+     * @throws IOException If an exception occurs while writing the marker
+     */
+    void complete() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory " + dir.getPath());
+        }
+        // synced before being moved into place, so that the marker never outlives a crash without the chunks
+        File temp = new File(dir, COMPLETE_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), new File(dir, COMPLETE_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads and decompresses the contents of the given chunk.
+     *
+     * @param chunkX The x-coordinate of the chunk
+     * @param chunkZ The z-coordinate of the chunk
+     * @return The contents of the chunk, or {@code null} if it was not
+     *     captured
+     * @throws IOException If an exception occurs while reading the chunk
+     */
+    byte[] read(int chunkX, int chunkZ) throws IOException {
+        File file = getFile(chunkX, chunkZ);
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = new InflaterInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    /**
+     * Deletes the snapshot, resets all change counts and stops counting
+     * changes until the next snapshot is captured.
+     *
+     * @throws IOException If the snapshot could not be deleted
+     */
+    void discard() throws IOException {
+        tracking = false;
+        resetCounts();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // delete the completion marker first so that a partially deleted snapshot is never used
+        File complete = new File(dir, COMPLETE_FILE);
+        if (complete.exists() && !complete.delete()) {
+            throw new IOException("Failed to delete snapshot in " + dir.getPath());
+        }
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete(); // recreated by the next snapshot
+    }
+
+    /**
+     * Records that the block at the given position has been changed. Blocks
+     * which have already been counted are ignored, as are all changes while
+     * no snapshot has been captured.
+     *
+     * @param x The x-coordinate of the block
+     * @param y The y-coordinate of the block
+     * @param z The z-coordinate of the block
+     */
+    void countChange(int x, int y, int z) {
+        if (!tracking) {
+            return;
+        }
+        long key = getChunkKey(x >> 4, z >> 4);
+        synchronized (changes) {
+            if (changedBlocks.add(RollbackIndex.pack(x, y, z))) {
+                Integer count = changes.get(key);
+                changes.put(key, count != null ? count + 1 : 1);
+            }
+        }
+    }
+
+    /**
+     * Resets all change counts without discarding the snapshot.
+     */
+    void resetCounts() {
+        synchronized (changes) {
+            changes.clear();
+            changedBlocks.clear();
+        }
+    }
+
+    /**
+     * Returns the fraction of blocks within the given chunk and boundary which
+     * have been changed since the snapshot was captured.
+     *
+     * @param chunkX The x-coordinate of the chunk
+     * @param chunkZ The z-coordinate of the chunk
+     * @param bounds The boundary of the arena
+     * @return The fraction of blocks in the chunk which have been changed
+     */
+    double getDensity(int chunkX, int chunkZ, Boundary bounds) {
+        Integer count;
+        synchronized (changes) {
+            count = changes.get(getChunkKey(chunkX, chunkZ));
+        }
+        if (count == null) {
+            return 0;
+        }
+        long width = overlap(chunkX << 4, bounds.getLowerBound().getX(), bounds.getUpperBound().getX());
+        long depth = overlap(chunkZ << 4, bounds.getLowerBound().getZ(), bounds.getUpperBound().getZ());
+        long height = (long) Math.floor(bounds.getUpperBound().getY())
+                - (long) Math.floor(bounds.getLowerBound().getY()) + 1;
+        long volume = width * depth * height;
+        return volume > 0 ? Math.min((double) count / volume, 1) : 0;
+    }
+
+    // returns the number of block columns along one axis shared by a chunk starting at the given coordinate and the
+    // given range
+    private static long overlap(int chunkStart, double lower, double upper) {
+        long from = Math.max(chunkStart, (long) Math.floor(lower));
+        long to = Math.min(chunkStart + 15, (long) Math.floor(upper));
+        return Math.max(to - from + 1, 0);
+    }
+
+    private File getFile(int chunkX, int chunkZ) {
+        return new File(dir, chunkX + "_" + chunkZ + ".bin");
+    }
+
+}
@@ -0,0 +1,392 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.common.CommonCore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only log of the state serials associated with an arena's rollback
+ * records.
+ *
+ * <p>Each entry consists of the ID of the record it belongs to, the length of
+ * the serial in bytes, and the UTF-8 encoded serial itself. Saving a serial is
+ * thus a single append regardless of how much state has been logged.</p>
+ *
+ * <p>Serials are compressed as described by {@link RollbackStateMap}. A
+ * negative length denotes a deflated serial, and the dictionary used to
+ * deflate serials is logged once as an entry with the ID
+ * {@link #DICTIONARY_ID} before the first serial compressed with it. The
+ * dictionary outlives truncation of the log, so that it may be shared by all
+ * rounds hosted by the arena.</p>
+ *
+ * @author Max Roncacé
+ */
+public class RollbackStateLog {
+
+    /**
+     * The ID of the entry holding the dictionary used to compress serials.
+     */
+    static final int DICTIONARY_ID = -1;
+
+    private final File file;
+
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    // the length of the log up to the end of its last complete entry, or -1 if unknown
+    private long validLength = -1;
+
+    private byte[] dictionary;
+    private boolean dictionaryRead;
+    private boolean dictionaryWritten;
+
+    /**
+     * Constructs a new {@link RollbackStateLog} backed by the given file.
+     *
+     * @param file The file backing the new log
+     */
+    public RollbackStateLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the file backing this {@link RollbackStateLog}.
+     *
+     * @return The file backing this {@link RollbackStateLog}
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Creates the file backing this {@link RollbackStateLog} if it does not
+     * already exist.
+     *
+     * @throws IOException If an exception occurs while creating the file
+     */
+    public synchronized void create() throws IOException {
+        if (!file.exists()) {
+            if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Failed to create directory " + file.getParentFile().getPath());
+            }
+            //noinspection ResultOfMethodCallIgnored
+            file.createNewFile();
+        }
+    }
+
+    /**
+     * Appends the given state serial to this log.
+     *
+     * <p>The entry is not guaranteed to be written to disk until
+     * {@link RollbackStateLog#flush()} is invoked.</p>
+     *
+     * @param id The ID of the record the serial belongs to
+     * @param serial The state serial
+     * @throws IOException If an exception occurs while writing to the log
+     */
+    public synchronized void append(int id, String serial) throws IOException {
+        if (out == null) {
+            open();
+        }
+
+        byte[] bytes = serial.getBytes(Charsets.UTF_8);
+        if (bytes.length >= RollbackStateMap.MIN_COMPRESSED_LENGTH) {
+            if (dictionary == null) {
+                dictionary = RollbackStateMap.toDictionary(bytes);
+            }
+            if (!dictionaryWritten) {
+                writeEntry(out, DICTIONARY_ID, dictionary, false);
+                dictionaryWritten = true;
+            }
+            byte[] compressed = RollbackStateMap.deflate(bytes, dictionary);
+            if (compressed.length < bytes.length) {
+                writeEntry(out, id, compressed, true);
+                return;
+            }
+        }
+        writeEntry(out, id, bytes, false);
+    }
+
+    // opens the output stream, first cutting off any partial entry left behind by an interrupted write
+    private void open() throws IOException {
+        create();
+        if (!dictionaryRead || validLength < 0) {
+            scan();
+        }
+        FileOutputStream fos = new FileOutputStream(file, true);
+        try {
+            if (fos.getChannel().size() > validLength) {
+                CommonCore.logWarning("Truncating partial entry at end of rollback state log " + file.getName());
+                fos.getChannel().truncate(validLength);
+            }
+        } catch (IOException ex) {
+            fos.close();
+            throw ex;
+        }
+        fileOut = fos;
+        out = new DataOutputStream(new BufferedOutputStream(fos));
+    }
+
+    private static void writeEntry(DataOutputStream out, int id, byte[] bytes, boolean compressed)
+            throws IOException {
+        out.writeInt(id);
+        out.writeInt(compressed ? -bytes.length : bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Flushes all appended entries to disk, returning only once they have
+     * been synced to the storage device.
+     *
+     * @throws IOException If an exception occurs while writing to the log
+     */
+    public synchronized void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Reads all entries from this log. Compressed serials are only
+     * decompressed as they are retrieved from the returned map.
+     *
+     * @return A map of record IDs to their respective state serials
+     * @throws IOException If an exception occurs while reading the log
+     */
+    public synchronized Map<Integer, String> load() throws IOException {
+        RollbackStateMap states = new RollbackStateMap(dictionary);
+        read(states);
+        return states;
+    }
+
+    // reads all entries into the given map, returning the number of serials read including superseded ones
+    private int read(RollbackStateMap states) throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+
+        if (!file.exists()) {
+            validLength = 0;
+            return 0;
+        }
+
+        int entries = 0;
+        long end = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int id;
+                try {
+                    id = in.readInt();
+                } catch (EOFException ex) {
+                    break; // clean end of log
+                }
+                try {
+                    int length = in.readInt();
+                    byte[] bytes = new byte[Math.abs(length)];
+                    in.readFully(bytes);
+                    if (id == DICTIONARY_ID) {
+                        setDictionary(bytes);
+                        states.setDictionary(bytes);
+                    } else {
+                        states.putEncoded(id, length < 0 ? bytes : new String(bytes, Charsets.UTF_8));
+                        entries++;
+                    }
+                    end += 8 + bytes.length;
+                } catch (EOFException ex) {
+                    CommonCore.logWarning("Rollback state log " + file.getName() + " ends with a partial entry (ID "
+                            + id + ") - ignoring");
+                    break;
+                }
+            }
+        }
+        dictionaryRead = true;
+        validLength = end;
+        return entries;
+    }
+
+    // reads the dictionary from the log and determines where its last complete entry ends
+    private void scan() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+
+        long end = 0;
+        if (file.exists()) {
+            long fileLength = file.length();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    int id = in.readInt();
+                    int length = Math.abs(in.readInt());
+                    if (end + 8 + length > fileLength) {
+                        break; // partial entry
+                    }
+                    if (id == DICTIONARY_ID) {
+                        byte[] bytes = new byte[length];
+                        in.readFully(bytes);
+                        setDictionary(bytes);
+                    } else {
+                        in.skipBytes(length);
+                    }
+                    end += 8 + length;
+                }
+            } catch (EOFException ignored) {
+                // end of log, possibly in the middle of an entry
+            }
+        }
+        dictionaryRead = true;
+        validLength = end;
+    }
+
+    private void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+        this.dictionaryWritten = true;
+    }
+
+    /**
+     * Rewrites this log such that it only contains the entries belonging to
+     * the given record IDs. Entries superseded by a later entry for the same
+     * ID are discarded as well.
+     *
+     * @param ids The IDs of the records whose entries should be retained
+     * @return The number of entries which were discarded
+     * @throws IOException If an exception occurs while rewriting the log
+     */
+    public synchronized int retain(Set<Integer> ids) throws IOException {
+        return rewrite(Predicates.in(ids));
+    }
+
+    /**
+     * Rewrites this log such that it no longer contains the entries belonging
+     * to records with IDs greater than the given ID.
+     *
+     * @param afterId The ID after which entries should be discarded
+     * @return The number of entries which were discarded
+     * @throws IOException If an exception occurs while rewriting the log
+     */
+    public synchronized int truncate(final int afterId) throws IOException {
+        return rewrite(new Predicate<Integer>() {
+            @Override
+            public boolean apply(Integer id) {
+                return id <= afterId;
+            }
+        });
+    }
+
+    // rewrites this log with only the latest entry for each ID matching the given predicate
+    private int rewrite(Predicate<Integer> retained) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        RollbackStateMap states = new RollbackStateMap(dictionary);
+        int entries = read(states);
+        Iterator<Integer> it = states.keySet().iterator();
+        while (it.hasNext()) {
+            if (!retained.apply(it.next())) {
+                it.remove();
+            }
+        }
+        if (states.size() == entries) {
+            return 0; // nothing to discard
+        }
+
+        close();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(fos));
+            if (dictionary != null) {
+                writeEntry(tempOut, DICTIONARY_ID, dictionary, false);
+            }
+            for (int id : states.keySet()) {
+                // entries are copied without decompressing them
+                Object value = states.getEncoded(id);
+                if (value instanceof byte[]) {
+                    writeEntry(tempOut, id, (byte[]) value, true);
+                } else {
+                    writeEntry(tempOut, id, ((String) value).getBytes(Charsets.UTF_8), false);
+                }
+            }
+            tempOut.flush();
+            fos.getFD().sync();
+        }
+        // the old log must remain intact until the new one is complete
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        dictionaryWritten = dictionary != null;
+        validLength = file.length();
+        return entries - states.size();
+    }
+
+    /**
+     * Discards all entries in this log. The dictionary is retained and will
+     * be logged again along with the next compressed serial.
+     *
+     * @throws IOException If an exception occurs while truncating the log
+     */
+    public synchronized void truncate() throws IOException {
+        if (!dictionaryRead) {
+            scan();
+        }
+        close();
+        create();
+        new FileOutputStream(file).close();
+        dictionaryWritten = false;
+        validLength = 0;
+    }
+
+    /**
+     * Closes the output stream held by this log, if any.
+     *
+     * @throws IOException If an exception occurs while closing the stream
+     */
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            fileOut = null;
+            validLength = -1;
+        }
+    }
+
+}
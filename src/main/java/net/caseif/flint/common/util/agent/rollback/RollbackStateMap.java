@@ -0,0 +1,306 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Map of record IDs to state serials which holds serials in compressed form
+ * and only decompresses them as they are retrieved.
+ *
+ * <p>Serials pertaining to the same arena tend to be near-identical (e.g. the
+ * inventories of chests), so each serial is deflated using the first
+ * sufficiently long serial seen by the map as a preset dictionary. Serials
+ * which do not shrink as a result are held as-is.</p>
+ *
+ * @author Max Roncacé
+ */
+class RollbackStateMap extends AbstractMap<Integer, String> {
+
+    /**
+     * The minimum length in bytes of a serial for it to be compressed or used
+     * as a dictionary.
+     */
+    static final int MIN_COMPRESSED_LENGTH = 64;
+
+    /**
+     * The maximum length of a dictionary, as imposed by the deflate window.
+     */
+    static final int MAX_DICTIONARY_LENGTH = 32 * 1024;
+
+    // values are either plain strings or deflated UTF-8 bytes
+    private final Map<Integer, Object> values;
+    private byte[] dictionary;
+
+    private Set<Entry<Integer, String>> entrySet;
+
+    /**
+     * Constructs a new, empty {@link RollbackStateMap} using the given
+     * dictionary.
+     *
+     * @param dictionary The dictionary to compress serials with, or
+     *     {@code null} to use the first serial which is put into the map
+     */
+    RollbackStateMap(byte[] dictionary) {
+        this.values = new HashMap<>();
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Constructs a new {@link RollbackStateMap} holding the same serials as
+     * the given one, without decompressing them.
+     *
+     * @param map The map to copy
+     */
+    RollbackStateMap(RollbackStateMap map) {
+        this.values = new HashMap<>(map.values);
+        this.dictionary = map.dictionary;
+    }
+
+    /**
+     * Returns the dictionary serials are compressed with.
+     *
+     * @return The dictionary serials are compressed with, or {@code null} if
+     *     none has been chosen yet
+     */
+    byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns the given serial encoded for storage, choosing it as the
+     * dictionary if none has been chosen yet.
+     *
+     * @param serial The serial to encode
+     * @return Either the serial itself or its deflated UTF-8 bytes
+     */
+    Object encode(String serial) {
+        byte[] bytes = serial.getBytes(Charsets.UTF_8);
+        if (bytes.length < MIN_COMPRESSED_LENGTH) {
+            return serial;
+        }
+        if (dictionary == null) {
+            dictionary = toDictionary(bytes);
+        }
+        byte[] compressed = deflate(bytes, dictionary);
+        return compressed.length < bytes.length ? compressed : serial;
+    }
+
+    /**
+     * Sets the dictionary serials are compressed with. This must be invoked
+     * before any serials compressed with it are retrieved.
+     *
+     * @param dictionary The dictionary serials are compressed with
+     */
+    void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Puts a serial which has already been encoded via
+     * {@link #encode(String)} into this map.
+     *
+     * @param id The ID of the record the serial belongs to
+     * @param value The encoded serial
+     */
+    void putEncoded(int id, Object value) {
+        values.put(id, value);
+    }
+
+    /**
+     * Returns the encoded form of the serial for the given record.
+     *
+     * @param id The ID of the record
+     * @return The encoded serial, or {@code null} if none is present
+     */
+    Object getEncoded(int id) {
+        return values.get(id);
+    }
+
+    @Override
+    public String put(Integer id, String serial) {
+        return decode(values.put(id, encode(serial)));
+    }
+
+    @Override
+    public String get(Object id) {
+        return decode(values.get(id));
+    }
+
+    @Override
+    public boolean containsKey(Object id) {
+        return values.containsKey(id);
+    }
+
+    @Override
+    public String remove(Object id) {
+        return decode(values.remove(id));
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+
+    @Override
+    public Set<Integer> keySet() {
+        return values.keySet();
+    }
+
+    @Override
+    public Set<Entry<Integer, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<Integer, String>>() {
+                @Override
+                public Iterator<Entry<Integer, String>> iterator() {
+                    final Iterator<Entry<Integer, Object>> it = values.entrySet().iterator();
+                    return new Iterator<Entry<Integer, String>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<Integer, String> next() {
+                            Entry<Integer, Object> entry = it.next();
+                            return new SimpleImmutableEntry<>(entry.getKey(), decode(entry.getValue()));
+                        }
+
+                        @Override
+                        public void remove() {
+                            it.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return values.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private String decode(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        return inflate((byte[]) value, dictionary);
+    }
+
+    /**
+     * Returns a dictionary derived from the given serial, which must be at
+     * least {@link #MIN_COMPRESSED_LENGTH} bytes long. The deflate window only
+     * reaches back so far, so overly long serials are cut down to their tail.
+     *
+     * @param serial The UTF-8 bytes of the serial
+     * @return The dictionary
+     */
+    static byte[] toDictionary(byte[] serial) {
+        return serial.length <= MAX_DICTIONARY_LENGTH
+                ? serial
+                : Arrays.copyOfRange(serial, serial.length - MAX_DICTIONARY_LENGTH, serial.length);
+    }
+
+    /**
+     * Deflates the given bytes using the given preset dictionary.
+     *
+     * @param input The bytes to deflate
+     * @param dictionary The preset dictionary
+     * @return The deflated bytes
+     */
+    static byte[] deflate(byte[] input, byte[] dictionary) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + 16);
+            byte[] buf = new byte[Math.min(input.length + 16, 8192)];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates the given bytes using the given preset dictionary.
+     *
+     * @param input The bytes to inflate
+     * @param dictionary The preset dictionary
+     * @return The inflated serial
+     * @throws IllegalStateException If the bytes are corrupt or were not
+     *     deflated using the given dictionary
+     */
+    static String inflate(byte[] input, byte[] dictionary) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 4);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int len = inflater.inflate(buf);
+                if (len == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new IllegalStateException("Compressed state serial requires missing dictionary");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalStateException("Compressed state serial is truncated");
+                    }
+                }
+                out.write(buf, 0, len);
+            }
+            return new String(out.toByteArray(), Charsets.UTF_8);
+        } catch (DataFormatException | IllegalArgumentException ex) {
+            throw new IllegalStateException("Compressed state serial is corrupt", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
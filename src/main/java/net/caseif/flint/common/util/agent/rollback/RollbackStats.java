@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+/**
+ * Snapshot of the size of an arena's rollback store, as reported by
+ * {@link IRollbackAgent#getStats()}.
+ *
+ * @author Max Roncacé
+ */
+public class RollbackStats {
+
+    private final String arenaId;
+    private final RollbackStoreType storeType;
+    private final int recordCount;
+    private final long sizeOnDisk;
+
+    RollbackStats(String arenaId, RollbackStoreType storeType, int recordCount, long sizeOnDisk) {
+        this.arenaId = arenaId;
+        this.storeType = storeType;
+        this.recordCount = recordCount;
+        this.sizeOnDisk = sizeOnDisk;
+    }
+
+    /**
+     * Returns the ID of the arena these statistics pertain to.
+     *
+     * @return The ID of the arena these statistics pertain to
+     */
+    public String getArenaId() {
+        return arenaId;
+    }
+
+    /**
+     * Returns the type of store backing the arena.
+     *
+     * @return The type of store backing the arena
+     */
+    public RollbackStoreType getStoreType() {
+        return storeType;
+    }
+
+    /**
+     * Returns the number of records held by the arena's store.
+     *
+     * @return The number of records held by the arena's store
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the number of bytes occupied on disk by the arena's store. For
+     * stores whose records are held in the rollback database shared by all
+     * arenas of a minigame, this includes the arena's estimated share of the
+     * database; see {@link RollbackCompactor.Report#getDatabaseSize()} for
+     * its total size.
+     *
+     * @return The number of bytes occupied on disk by the arena's store
+     */
+    public long getSizeOnDisk() {
+        return sizeOnDisk;
+    }
+
+    @Override
+    public String toString() {
+        return arenaId + " (" + storeType + "): " + recordCount + " records, " + sizeOnDisk + " bytes";
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A backend which persists the {@link RollbackRecord}s and state serials
+ * logged by a {@link CommonRollbackAgent}.
+ *
+ * <p>Implementations need not be thread-safe beyond what is documented on
+ * each method, as the owning agent serializes writes through its
+ * {@link RollbackJournal}.</p>
+ *
+ * @author Max Roncacé
+ */
+public interface RollbackStore {
+
+    /**
+     * Opens this store, loading or migrating any existing data.
+     *
+     * @throws IOException If an exception occurs while opening the store
+     */
+    void open() throws IOException;
+
+    /**
+     * Prepares this store to accept records, e.g. by creating any backing
+     * tables or files.
+     *
+     * @throws IOException If an exception occurs while preparing the store
+     */
+    void prepare() throws IOException;
+
+    /**
+     * Returns whether records bound for this store should be buffered in a
+     * {@link RollbackJournal} and written in batches. Stores for which a
+     * single append is cheap should return {@code false}, in which case
+     * records are passed to {@link #append(RollbackRecord)} as they are
+     * logged.
+     *
+     * @return Whether records should be journaled before being written
+     */
+    boolean isJournaled();
+
+    /**
+     * Returns the number of records currently held by this store.
+     *
+     * @return The number of records currently held by this store
+     * @throws IOException If an exception occurs while reading from the store
+     */
+    int getRecordCount() throws IOException;
+
+    /**
+     * Writes the given {@link RollbackRecord}s to this store, along with any
+     * state serials they carry. Records written by a single invocation must
+     * become visible atomically.
+     *
+     * @param records The {@link RollbackRecord}s to write
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void write(List<RollbackRecord> records) throws IOException;
+
+    /**
+     * Immediately writes a single {@link RollbackRecord} to this store, along
+     * with its state serial if present. This method must be safe to invoke
+     * concurrently.
+     *
+     * @param record The {@link RollbackRecord} to write
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void append(RollbackRecord record) throws IOException;
+
+    /**
+     * Makes all records previously passed to {@link #append(RollbackRecord)}
+     * durable and visible to queries. Stores which do so as part of each
+     * append may treat this as a no-op.
+     *
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void flush() throws IOException;
+
+    /**
+     * Returns the ID of the most recently written record, or {@code 0} if
+     * this store does not hold any records. IDs are assigned in increasing
+     * order, so records written afterward are guaranteed to receive greater
+     * IDs.
+     *
+     * @return The ID of the most recently written record
+     * @throws IOException If an exception occurs while reading from the store
+     */
+    int getLastId() throws IOException;
+
+    /**
+     * Opens a {@link Cursor} over the records of the given type with IDs
+     * greater than {@code afterId}.
+     *
+     * <p>Block changes are ordered by chunk, and by descending ID within each
+     * chunk. Entity records are ordered by descending ID. This way, if a
+     * subject was recorded more than once, its oldest record is applied
+     * last.</p>
+     *
+     * @param type The type of records to iterate
+     * @param states The state serials to attach to the returned records, as
+     *     returned by {@link #loadStates()}, or {@code null} if none should be
+     *     attached. Callers opening several cursors should load them once and
+     *     share them between cursors.
+     * @param afterId The ID after which records should be returned, or
+     *     {@code 0} to return all records
+     * @return A {@link Cursor} over the records of the given type
+     * @throws IOException If an exception occurs while reading from the store
+     */
+    Cursor query(RollbackRecord.Type type, Map<Integer, String> states, int afterId) throws IOException;
+
+    /**
+     * Discards all records with IDs greater than the given ID, along with
+     * their state serials.
+     *
+     * @param afterId The ID after which records should be discarded
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void truncate(int afterId) throws IOException;
+
+    /**
+     * Discards records with IDs less than the given ID which are superseded
+     * by an older record pertaining to the same block or entity. Stores for
+     * which this is not worthwhile may treat it as a no-op.
+     *
+     * @param beforeId The ID before which superseded records may be discarded
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void compact(int beforeId) throws IOException;
+
+    /**
+     * Discards state serials which do not belong to any record held by this
+     * store, e.g. those left behind by records which were compacted away.
+     *
+     * @return The number of state serials which were discarded
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    int pruneStates() throws IOException;
+
+    /**
+     * Returns the number of bytes occupied on disk by this store. Files shared
+     * with the stores of other arenas count towards it in proportion to the
+     * share of their contents which belongs to this store, as estimated by
+     * the store.
+     *
+     * @return The number of bytes occupied on disk by this store
+     */
+    long getSizeOnDisk();
+
+    /**
+     * Loads the state serials held by this store, keyed by record ID.
+     *
+     * @return The state serials held by this store
+     * @throws IOException If an exception occurs while reading from the store
+     */
+    Map<Integer, String> loadStates() throws IOException;
+
+    /**
+     * Saves the given state serial for the record with the given ID.
+     *
+     * @param id The ID of the record the serial belongs to
+     * @param serial The state serial
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void saveState(int id, String serial) throws IOException;
+
+    /**
+     * Discards all state serials held by this store.
+     *
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void clearStates() throws IOException;
+
+    /**
+     * Discards all records and state serials held by this store.
+     *
+     * @throws IOException If an exception occurs while writing to the store
+     */
+    void clear() throws IOException;
+
+    /**
+     * Closes this store, releasing any resources held by it.
+     *
+     * @throws IOException If an exception occurs while closing the store
+     */
+    void close() throws IOException;
+
+    /**
+     * Closes this store and deletes all data held by it, including any files
+     * belonging exclusively to it, e.g. once its arena has been removed.
+     *
+     * @throws IOException If an exception occurs while deleting the store
+     */
+    void delete() throws IOException;
+
+    /**
+     * A forward-only cursor over the records held by a {@link RollbackStore}.
+     * Cursors may be advanced across multiple ticks but must be closed once
+     * they are no longer needed.
+     */
+    interface Cursor extends Closeable {
+
+        /**
+         * Returns the next record, or {@code null} if the cursor is exhausted.
+         *
+         * @return The next record, or {@code null} if the cursor is exhausted
+         * @throws IOException If an exception occurs while reading the record
+         */
+        RollbackRecord next() throws IOException;
+
+        /**
+         * Clears the given batch and fills it with the following records
+         * until it is full or this cursor is exhausted.
+         *
+         * @param batch The batch to fill
+         * @return The number of records read, or {@code 0} if the cursor is
+         *     exhausted
+         * @throws IOException If an exception occurs while reading the records
+         */
+        int fill(RollbackRecordBatch batch) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.common.arena.CommonArena;
+
+/**
+ * The available {@link RollbackStore} backends.
+ *
+ * @author Max Roncacé
+ */
+public enum RollbackStoreType {
+
+    /**
+     * Records are stored in the minigame's shared SQLite database.
+     */
+    SQLITE {
+        @Override
+        public RollbackStore createStore(CommonArena arena) {
+            return new SqliteRollbackStore(arena);
+        }
+    },
+    /**
+     * Records are held in memory and never written to disk.
+     */
+    MEMORY {
+        @Override
+        public RollbackStore createStore(CommonArena arena) {
+            return new MemoryRollbackStore();
+        }
+    },
+    /**
+     * Records are stored in a memory-mapped file per arena.
+     */
+    MAPPED {
+        @Override
+        public RollbackStore createStore(CommonArena arena) {
+            return new MappedRollbackStore(arena);
+        }
+    };
+
+    /**
+     * Creates a new {@link RollbackStore} of this type for the given arena.
+     *
+     * @param arena The arena to create a store for
+     * @return The new {@link RollbackStore}
+     */
+    public abstract RollbackStore createStore(CommonArena arena);
+
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.common.CommonCore;
+import net.caseif.flint.common.util.metrics.Gauge;
+import net.caseif.flint.minigame.Minigame;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-writer executor which serializes all rollback logging for a given
+ * {@link Minigame} onto a dedicated thread, so that platform event listeners
+ * never block on the rollback store.
+ *
+ * @author Max Roncacé
+ */
+public class RollbackWriter {
+
+    private static final Map<Minigame, RollbackWriter> WRITERS = new HashMap<>();
+
+    private final ListeningExecutorService executor;
+    private final String metricPrefix;
+    // tasks which have been submitted but not yet completed
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private volatile ErrorHandler errorHandler = DefaultErrorHandler.INSTANCE;
+
+    private RollbackWriter(Minigame minigame) {
+        this.executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Flint Rollback Writer - " + minigame.getPlugin())
+                        .setDaemon(true).build()
+        ));
+        this.metricPrefix = "rollback.writer." + minigame.getPlugin() + ".";
+        CommonCore.getMetrics().registerGauge(metricPrefix + "queue", new Gauge() {
+            @Override
+            public long getValue() {
+                return getQueueDepth();
+            }
+        });
+    }
+
+    /**
+     * Gets the {@link RollbackWriter} for the given {@link Minigame}, creating
+     * it if necessary.
+     *
+     * @param minigame The {@link Minigame} to get the writer for
+     * @return The {@link RollbackWriter} for the given {@link Minigame}
+     */
+    public static synchronized RollbackWriter getWriter(Minigame minigame) {
+        RollbackWriter writer = WRITERS.get(minigame);
+        if (writer == null) {
+            writer = new RollbackWriter(minigame);
+            WRITERS.put(minigame, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Shuts down the {@link RollbackWriter} for the given {@link Minigame}, if
+     * one exists. Tasks which have already been submitted are still run.
+     *
+     * @param minigame The {@link Minigame} to release the writer of
+     */
+    public static synchronized void release(Minigame minigame) {
+        RollbackWriter writer = WRITERS.remove(minigame);
+        if (writer != null) {
+            writer.executor.shutdown();
+            CommonCore.getMetrics().removeAll(writer.metricPrefix);
+        }
+    }
+
+    /**
+     * Returns the number of tasks which have been submitted to this writer
+     * but have not yet completed.
+     *
+     * @return The number of pending tasks
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Returns the {@link ErrorHandler} which is notified of failed
+     * asynchronous writes.
+     *
+     * @return The current {@link ErrorHandler}
+     */
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * Sets the {@link ErrorHandler} which is notified of failed asynchronous
+     * writes.
+     *
+     * @param errorHandler The new {@link ErrorHandler}
+     */
+    public void setErrorHandler(ErrorHandler errorHandler) {
+        Preconditions.checkNotNull(errorHandler, "errorHandler");
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Submits the given task to the writer thread.
+     *
+     * @param task The task to run
+     * @param <T> The type of the task's result
+     * @return A {@link ListenableFuture} representing the task's result
+     */
+    <T> ListenableFuture<T> submit(final Callable<T> task) {
+        queueDepth.incrementAndGet();
+        try {
+            return executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return task.call();
+                    } finally {
+                        queueDepth.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            queueDepth.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Submits the given task to the writer thread, reporting any failure to
+     * the current {@link ErrorHandler}.
+     *
+     * @param agent The agent on whose behalf the record is being written
+     * @param record The record being written
+     * @param task The task to run
+     * @param <T> The type of the task's result
+     * @return A {@link ListenableFuture} representing the task's result
+     */
+    <T> ListenableFuture<T> submit(final CommonRollbackAgent agent, final RollbackRecord record,
+            Callable<T> task) {
+        ListenableFuture<T> future = submit(task);
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                errorHandler.handle(agent, record, t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Blocks until all tasks submitted to this writer prior to the invocation
+     * of this method have completed, including those still queued when the
+     * writer was released. This method must not be invoked from the writer
+     * thread.
+     */
+    void await() {
+        try {
+            if (executor.isShutdown()) {
+                // no further tasks are accepted, but those already queued still run
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                return;
+            }
+            submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    return null;
+                }
+            }).get();
+        } catch (RejectedExecutionException ex) {
+            await(); // the writer was released in the meantime
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /**
+     * Handles failures of asynchronous rollback writes.
+     */
+    public interface ErrorHandler {
+
+        /**
+         * Handles the failure of an asynchronous rollback write.
+         *
+         * @param agent The agent on whose behalf the record was being written
+         * @param record The record which failed to be written
+         * @param cause The cause of the failure
+         */
+        void handle(CommonRollbackAgent agent, RollbackRecord record, Throwable cause);
+
+    }
+
+    private static class DefaultErrorHandler implements ErrorHandler {
+
+        private static final DefaultErrorHandler INSTANCE = new DefaultErrorHandler();
+
+        @Override
+        public void handle(CommonRollbackAgent agent, RollbackRecord record, Throwable cause) {
+            CommonCore.logSevere("Failed to log rollback record of type " + record.getType() + " in arena "
+                    + agent.getArena().getId());
+            cause.printStackTrace();
+        }
+
+    }
+
+}
@@ -0,0 +1,722 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.agent.rollback;
+
+import net.caseif.flint.common.CommonCore;
+import net.caseif.flint.common.arena.CommonArena;
+import net.caseif.flint.common.util.file.CommonDataFiles;
+import net.caseif.flint.util.physical.Location3D;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link RollbackStore} backed by a table in the minigame's shared SQLite
+ * rollback database, with state serials kept in a per-arena
+ * {@link RollbackStateLog}.
+ *
+ * @author Max Roncacé
+ */
+public class SqliteRollbackStore implements RollbackStore {
+
+    /**
+     * The current version of the rollback table schema. Tables created at an
+     * earlier version are migrated when the store is prepared.
+     */
+    public static final int SCHEMA_VERSION = 4;
+
+    // column indices of the rollback table, in order of declaration
+    private static final int COLUMN_ID = 1;
+    private static final int COLUMN_WORLD = 2;
+    private static final int COLUMN_X = 3;
+    private static final int COLUMN_Y = 4;
+    private static final int COLUMN_Z = 5;
+    private static final int COLUMN_UUID = 6;
+    private static final int COLUMN_TYPE = 7;
+    private static final int COLUMN_DATA = 8;
+    private static final int COLUMN_STATE = 9;
+    private static final int COLUMN_RECORD_TYPE = 10;
+
+    private static final RollbackRecord.Type[] RECORD_TYPES = RollbackRecord.Type.values();
+
+    /**
+     * The number of records examined by each statement of a compaction pass.
+     */
+    private static final int COMPACTION_PAGE_SIZE = 4096;
+
+    private final CommonArena arena;
+
+    private final RollbackConnectionHolder connHolder;
+    private final File legacyStateStore;
+    private final RollbackStateLog stateLog;
+
+    private boolean tableReady;
+
+    public SqliteRollbackStore(CommonArena arena) {
+        this.arena = arena;
+        this.connHolder = RollbackConnectionHolder.getHolder(arena.getMinigame());
+        this.legacyStateStore = CommonDataFiles.ROLLBACK_STATE_STORE.getFile(arena.getMinigame());
+        this.stateLog = new RollbackStateLog(new File(CommonDataFiles.ROLLBACK_STATE_DIR.getFile(arena.getMinigame()),
+                arena.getId() + ".dat"));
+    }
+
+    @Override
+    public void open() throws IOException {
+        stateLog.create();
+        migrateLegacyStateStore();
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        stateLog.create();
+
+        synchronized (connHolder) {
+            try {
+                try (Statement st = connHolder.getConnection().createStatement()) {
+                    st.executeUpdate(RollbackConnectionHolder.getQuery("create-schema-table", arena.getId()));
+                    st.executeUpdate(RollbackConnectionHolder.getQuery("create-rollback-table", arena.getId()));
+                }
+                connHolder.invalidate(arena.getId());
+                migrateSchema();
+                tableReady = true;
+            } catch (SQLException ex) {
+                throw new IOException("Failed to create rollback table for arena " + arena.getId(), ex);
+            }
+        }
+    }
+
+    /**
+     * Migrates the rollback table of this store's arena from the version
+     * recorded in the schema table to {@link #SCHEMA_VERSION}. Tables without
+     * a recorded version predate versioning and are treated as version 1.
+     *
+     * @throws SQLException If an exception occurs while migrating the table
+     */
+    private void migrateSchema() throws SQLException {
+        int version = 1;
+        PreparedStatement query = connHolder.getStatement("get-schema-version", arena.getId());
+        query.setString(1, arena.getId());
+        try (ResultSet rs = query.executeQuery()) {
+            if (rs.next()) {
+                version = rs.getInt(1);
+            }
+        }
+
+        if (version == SCHEMA_VERSION) {
+            return;
+        } else if (version > SCHEMA_VERSION) {
+            throw new SQLException("Rollback table for arena " + arena.getId() + " has schema version "
+                    + version + ", which is newer than the supported version " + SCHEMA_VERSION);
+        }
+
+        Connection conn = connHolder.getConnection();
+        conn.setAutoCommit(false);
+        try {
+            try (Statement st = conn.createStatement()) {
+                for (int v = version + 1; v <= SCHEMA_VERSION; v++) {
+                    for (String sql : RollbackConnectionHolder.getQuery("migrate-rollback-table-" + v,
+                            arena.getId()).split(";")) {
+                        st.executeUpdate(sql);
+                    }
+                }
+            }
+            PreparedStatement update = connHolder.getStatement("set-schema-version", arena.getId());
+            update.setString(1, arena.getId());
+            update.setInt(2, SCHEMA_VERSION);
+            update.executeUpdate();
+            conn.commit();
+        } catch (SQLException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        connHolder.invalidate(arena.getId());
+
+        CommonCore.logVerbose("Migrated rollback table for arena " + arena.getId() + " from schema version "
+                + version + " to " + SCHEMA_VERSION);
+    }
+
+    // must be called while holding the lock on the connection holder
+    private boolean tableExists() throws SQLException {
+        if (!connHolder.getStoreFile().exists()) {
+            return false;
+        }
+        PreparedStatement query = connHolder.getStatement("query-table", arena.getId());
+        query.setString(1, arena.getId());
+        try (ResultSet rs = query.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    @Override
+    public boolean isJournaled() {
+        return true;
+    }
+
+    @Override
+    public int getRecordCount() throws IOException {
+        synchronized (connHolder) {
+            try {
+                if (!tableExists()) {
+                    return 0;
+                }
+                try (ResultSet rs = connHolder.getStatement("count-records", arena.getId()).executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            } catch (SQLException ex) {
+                throw new IOException("Failed to count rollback records for arena " + arena.getId(), ex);
+            }
+        }
+    }
+
+    @Override
+    public void write(List<RollbackRecord> records) throws IOException {
+        Map<Integer, String> serials = new HashMap<>();
+        synchronized (connHolder) {
+            if (!tableReady) {
+                prepare();
+            }
+            try {
+                Connection conn = connHolder.getConnection();
+                conn.setAutoCommit(false);
+                try {
+                    for (RollbackRecord record : records) {
+                        int id = writeRecord(record);
+                        if (record.getStateSerial() != null) {
+                            serials.put(id, record.getStateSerial());
+                        }
+                    }
+                    conn.commit();
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException ex) {
+                throw new IOException("Failed to write rollback records for arena " + arena.getId(), ex);
+            }
+        }
+        // don't save serials until their IDs are committed
+        for (Map.Entry<Integer, String> entry : serials.entrySet()) {
+            stateLog.append(entry.getKey(), entry.getValue());
+        }
+        stateLog.flush();
+    }
+
+    @Override
+    public void append(RollbackRecord record) throws IOException {
+        write(Collections.singletonList(record));
+    }
+
+    /**
+     * Does nothing, as each append is committed in its own transaction.
+     */
+    @Override
+    public void flush() {
+    }
+
+    // returns the ID of the written record
+    private int writeRecord(RollbackRecord record) throws SQLException {
+        PreparedStatement ps;
+        int i = 1;
+        String world = record.getLocation().getWorld().or(arena.getWorld());
+        switch (record.getType()) {
+            case BLOCK_CHANGE:
+                ps = connHolder.getStatement("insert-block-rollback-record", arena.getId());
+                ps.setString(i++, world);
+                ps.setInt(i++, (int) record.getLocation().getX());
+                ps.setInt(i++, (int) record.getLocation().getY());
+                ps.setInt(i++, (int) record.getLocation().getZ());
+                ps.setString(i++, record.getTypeData());
+                ps.setInt(i++, record.getData());
+                break;
+            case ENTITY_CREATION:
+                ps = connHolder.getStatement("insert-entity-created-rollback-record", arena.getId());
+                ps.setString(i++, world);
+                ps.setString(i++, record.getUuid().toString());
+                break;
+            case ENTITY_CHANGE:
+                ps = connHolder.getStatement("insert-entity-changed-rollback-record", arena.getId());
+                ps.setString(i++, world);
+                ps.setInt(i++, (int) record.getLocation().getX());
+                ps.setInt(i++, (int) record.getLocation().getY());
+                ps.setInt(i++, (int) record.getLocation().getZ());
+                ps.setString(i++, record.getUuid().toString());
+                ps.setString(i++, record.getTypeData());
+                break;
+            default:
+                throw new AssertionError("Inconsistency detected in method: recordType is in an illegal state. "
+                        + "Report this immediately.");
+        }
+        // bind non-negotiable values
+        ps.setBoolean(i++, record.getStateSerial() != null);
+        ps.setInt(i, record.getType().ordinal());
+        ps.executeUpdate();
+        try (ResultSet gen = ps.getGeneratedKeys()) {
+            if (gen.next()) {
+                return gen.getInt(1);
+            } else {
+                throw new SQLException("Failed to get generated key from update query");
+            }
+        }
+    }
+
+    @Override
+    public int getLastId() throws IOException {
+        synchronized (connHolder) {
+            try {
+                if (!tableExists()) {
+                    return 0;
+                }
+                try (ResultSet rs = connHolder.getStatement("get-last-id", arena.getId()).executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            } catch (SQLException ex) {
+                throw new IOException("Failed to query rollback records for arena " + arena.getId(), ex);
+            }
+        }
+    }
+
+    @Override
+    public Cursor query(RollbackRecord.Type type, Map<Integer, String> states, int afterId) {
+        return new SqliteCursor(type, afterId, states != null ? states : Collections.<Integer, String>emptyMap());
+    }
+
+    @Override
+    public void truncate(int afterId) throws IOException {
+        executeUpdate("delete-records-after", afterId);
+        // IDs are reused once the records holding them are deleted, so their serials must not outlive them
+        stateLog.truncate(afterId);
+    }
+
+    @Override
+    public void compact(int beforeId) throws IOException {
+        int removed = 0;
+        long lastId = 0;
+        while (true) {
+            // the lock is released between pages so that other arenas sharing the connection aren't held up
+            synchronized (connHolder) {
+                try {
+                    if (!tableExists()) {
+                        break;
+                    }
+                    PreparedStatement query = connHolder.getStatement("get-compact-page-end", arena.getId());
+                    query.setLong(1, lastId);
+                    query.setInt(2, beforeId);
+                    query.setInt(3, COMPACTION_PAGE_SIZE);
+                    long pageEnd;
+                    try (ResultSet rs = query.executeQuery()) {
+                        pageEnd = rs.next() ? rs.getLong(1) : 0;
+                    }
+                    if (pageEnd == 0) {
+                        break;
+                    }
+                    PreparedStatement delete = connHolder.getStatement("compact-records-page", arena.getId());
+                    delete.setLong(1, lastId);
+                    delete.setLong(2, pageEnd);
+                    removed += delete.executeUpdate();
+                    lastId = pageEnd;
+                } catch (SQLException ex) {
+                    throw new IOException("Failed to compact rollback records for arena " + arena.getId(), ex);
+                }
+            }
+        }
+        if (removed > 0) {
+            CommonCore.logVerbose("Compacted " + removed + " superseded rollback records in arena " + arena.getId());
+        }
+    }
+
+    // returns the number of affected rows
+    private int executeUpdate(String key, int param) throws IOException {
+        synchronized (connHolder) {
+            try {
+                if (!tableExists()) {
+                    return 0;
+                }
+                PreparedStatement st = connHolder.getStatement(key, arena.getId());
+                st.setInt(1, param);
+                return st.executeUpdate();
+            } catch (SQLException ex) {
+                throw new IOException("Failed to update rollback records for arena " + arena.getId(), ex);
+            }
+        }
+    }
+
+    // returns null if the record could not be read
+    private RollbackRecord readRecord(ResultSet rs, Map<Integer, String> stateMap) {
+        try {
+            int id = rs.getInt("id");
+            String world = rs.getString("world");
+            int x = rs.getInt("x");
+            int y = rs.getInt("y");
+            int z = rs.getInt("z");
+            UUID uuid = rs.getString("uuid") != null ? UUID.fromString(rs.getString("uuid")) : null;
+            String type = rs.getString("type");
+            int data = rs.getInt("data");
+            boolean state = rs.getBoolean("state");
+            RollbackRecord.Type recordType = RollbackRecord.Type.values()[rs.getInt("record_type")];
+
+            // IDs may be reused after a truncation, so only trust the serial if the record claims to have one
+            String stateSerial = state ? stateMap.get(id) : null;
+            if (state && stateSerial == null && !stateMap.isEmpty()) {
+                CommonCore.logVerbose("Rollback record with ID " + id + " was marked as having state, but no "
+                        + "corresponding serial was found");
+            }
+
+            switch (recordType) {
+                case BLOCK_CHANGE:
+                    return RollbackRecord.createBlockRecord(id, new Location3D(world, x, y, z), type, data,
+                            stateSerial);
+                case ENTITY_CREATION:
+                    return RollbackRecord.createEntityCreationRecord(id, uuid, world);
+                case ENTITY_CHANGE:
+                    return RollbackRecord.createEntityChangeRecord(id, uuid, new Location3D(world, x, y, z), type,
+                            stateSerial);
+                default:
+                    CommonCore.logWarning("Invalid rollback record type at ID " + id);
+                    return null;
+            }
+        } catch (SQLException ex) {
+            CommonCore.logSevere("Failed to read rollback record in arena " + arena.getId());
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public int pruneStates() throws IOException {
+        Set<Integer> ids = new HashSet<>();
+        synchronized (connHolder) {
+            try {
+                if (tableExists()) {
+                    try (ResultSet rs = connHolder.getStatement("get-state-ids", arena.getId()).executeQuery()) {
+                        while (rs.next()) {
+                            ids.add(rs.getInt(1));
+                        }
+                    }
+                }
+            } catch (SQLException ex) {
+                throw new IOException("Failed to query rollback records for arena " + arena.getId(), ex);
+            }
+        }
+        return stateLog.retain(ids);
+    }
+
+    /**
+     * Returns the size of this arena's state log plus its share of the
+     * rollback database shared by all arenas of the minigame. The share is
+     * estimated from the fraction of the database's records which belong to
+     * this arena, and counting them may take a while for large databases.
+     *
+     * @return The number of bytes occupied on disk by this store
+     */
+    @Override
+    public long getSizeOnDisk() {
+        long size = stateLog.getFile().length();
+        synchronized (connHolder) {
+            try {
+                if (!tableExists()) {
+                    return size;
+                }
+                long total = connHolder.countRecords();
+                if (total > 0) {
+                    size += (long) ((double) getRecordCount() / total * connHolder.getStoreFile().length());
+                }
+            } catch (IOException | SQLException ex) {
+                CommonCore.logWarning("Failed to measure rollback database share of arena " + arena.getId());
+                ex.printStackTrace();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Map<Integer, String> loadStates() throws IOException {
+        return stateLog.load();
+    }
+
+    @Override
+    public void saveState(int id, String serial) throws IOException {
+        stateLog.append(id, serial);
+        stateLog.flush();
+    }
+
+    @Override
+    public void clearStates() throws IOException {
+        stateLog.truncate();
+    }
+
+    @Override
+    public void clear() throws IOException {
+        synchronized (connHolder) {
+            try {
+                if (tableExists()) {
+                    connHolder.getStatement("drop-table", arena.getId()).executeUpdate();
+                    PreparedStatement delete = connHolder.getStatement("delete-schema-version", arena.getId());
+                    delete.setString(1, arena.getId());
+                    delete.executeUpdate();
+                }
+                connHolder.invalidate(arena.getId());
+                tableReady = false;
+            } catch (SQLException ex) {
+                throw new IOException("Failed to drop rollback table for arena " + arena.getId(), ex);
+            }
+        }
+        clearStates();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stateLog.close();
+    }
+
+    @Override
+    public void delete() throws IOException {
+        clear(); // the database itself is shared with the minigame's other arenas
+        close();
+        Files.deleteIfExists(stateLog.getFile().toPath());
+    }
+
+    /**
+     * Moves any states for this arena in the legacy JSON state store into the
+     * arena's state log, deleting the legacy store once it is empty.
+     *
+     * @throws IOException If an exception occurs while migrating states
+     */
+    private void migrateLegacyStateStore() throws IOException {
+        if (!legacyStateStore.exists()) {
+            return;
+        }
+
+        JsonElement json;
+        try (FileReader reader = new FileReader(legacyStateStore)) {
+            json = new JsonParser().parse(reader);
+        }
+
+        if (json.isJsonObject() && json.getAsJsonObject().has(arena.getId())) {
+            if (json.getAsJsonObject().get(arena.getId()).isJsonObject()) {
+                int count = 0;
+                for (Map.Entry<String, JsonElement> entry
+                        : json.getAsJsonObject().getAsJsonObject(arena.getId()).entrySet()) {
+                    int id;
+                    try {
+                        id = Integer.parseInt(entry.getKey());
+                    } catch (NumberFormatException ex) {
+                        CommonCore.logWarning("Cannot migrate rollback state with ID " + entry.getKey()
+                                + " - key is not an int");
+                        continue;
+                    }
+
+                    if (!entry.getValue().isJsonPrimitive() || !entry.getValue().getAsJsonPrimitive().isString()) {
+                        CommonCore.logWarning("Cannot migrate rollback state with ID " + id + " - not a string");
+                        continue;
+                    }
+
+                    stateLog.append(id, entry.getValue().getAsString());
+                    count++;
+                }
+                stateLog.flush();
+                if (count > 0) {
+                    CommonCore.logInfo("Migrated " + count + " rollback states for arena " + arena.getId()
+                            + " to new format");
+                }
+            }
+            json.getAsJsonObject().remove(arena.getId());
+        }
+
+        if (!json.isJsonObject() || json.getAsJsonObject().entrySet().isEmpty()) {
+            Files.delete(legacyStateStore.toPath());
+        } else {
+            try (FileWriter writer = new FileWriter(legacyStateStore)) {
+                writer.write(json.toString());
+            }
+        }
+    }
+
+    // reads the current row into the given batch by column index, returning whether the batch has room for more
+    private boolean readRecord(ResultSet rs, RollbackRecordBatch batch) throws SQLException {
+        int id = rs.getInt(COLUMN_ID);
+        int recordType = rs.getInt(COLUMN_RECORD_TYPE);
+        if (recordType < 0 || recordType >= RECORD_TYPES.length) {
+            CommonCore.logWarning("Invalid rollback record type at ID " + id);
+            return true;
+        }
+        String uuid = rs.getString(COLUMN_UUID);
+        try {
+            return batch.add(id, RECORD_TYPES[recordType], batch.intern(rs.getString(COLUMN_WORLD)),
+                    rs.getInt(COLUMN_X), rs.getInt(COLUMN_Y), rs.getInt(COLUMN_Z),
+                    uuid != null ? RollbackRecordBatch.parseUuidBits(uuid, true) : 0,
+                    uuid != null ? RollbackRecordBatch.parseUuidBits(uuid, false) : 0,
+                    batch.intern(rs.getString(COLUMN_TYPE)), rs.getInt(COLUMN_DATA), rs.getBoolean(COLUMN_STATE));
+        } catch (IllegalArgumentException ex) {
+            CommonCore.logWarning("Invalid UUID in rollback record with ID " + id + " - skipping");
+            return true;
+        }
+    }
+
+    /**
+     * A {@link Cursor} which reads records a page at a time, resuming each page
+     * after the last row of the previous one.
+     *
+     * <p>No result set is held open between pages, since an open cursor on the
+     * connection shared by all arenas of the minigame would lock their tables
+     * against being dropped or migrated.</p>
+     */
+    private class SqliteCursor implements Cursor {
+
+        private static final int PAGE_SIZE = 1024;
+
+        private final RollbackRecord.Type type;
+        private final int afterId;
+        private final Map<Integer, String> stateMap;
+
+        private final Deque<RollbackRecord> buffer = new ArrayDeque<>();
+        private boolean exhausted;
+
+        // sort key of the last row read, initially preceding every row
+        private long lastChunkX = Long.MIN_VALUE;
+        private long lastChunkZ = Long.MIN_VALUE;
+        private long lastId = Long.MAX_VALUE;
+
+        private SqliteCursor(RollbackRecord.Type type, int afterId, Map<Integer, String> stateMap) {
+            this.type = type;
+            this.afterId = afterId;
+            this.stateMap = stateMap;
+        }
+
+        @Override
+        public RollbackRecord next() throws IOException {
+            while (buffer.isEmpty() && !exhausted) {
+                readPage(PAGE_SIZE, null);
+            }
+            return buffer.poll();
+        }
+
+        @Override
+        public int fill(RollbackRecordBatch batch) throws IOException {
+            batch.clear();
+            batch.setStateMap(stateMap);
+            while (!batch.isFull() && !exhausted) {
+                readPage(batch.capacity() - batch.size(), batch);
+            }
+            return batch.size();
+        }
+
+        // reads up to the given number of rows into the given batch, or into the buffer if it is null
+        private void readPage(int limit, RollbackRecordBatch batch) throws IOException {
+            synchronized (connHolder) {
+                try {
+                    if (!tableExists()) {
+                        exhausted = true;
+                        return;
+                    }
+                    if (type != RollbackRecord.Type.BLOCK_CHANGE) {
+                        exhausted = readRows("get-entity-records-page", limit, batch, lastId) < limit;
+                        return;
+                    }
+
+                    // each query resumes along a single range of the chunk index, which a combined query can't do
+                    long chunkX = lastChunkX;
+                    long chunkZ = lastChunkZ;
+                    int remaining = limit;
+                    if (lastId != Long.MAX_VALUE) {
+                        remaining -= readRows("get-records-page-chunk", remaining, batch, chunkX, chunkZ, lastId);
+                        if (remaining > 0) {
+                            remaining -= readRows("get-records-page-row", remaining, batch, chunkX, chunkZ);
+                        }
+                    }
+                    if (remaining > 0) {
+                        int rest = readRows("get-records-page-rest", remaining, batch, chunkX);
+                        exhausted = rest < remaining;
+                    }
+                } catch (SQLException ex) {
+                    throw new IOException("Failed to read rollback records for arena " + arena.getId(), ex);
+                }
+            }
+        }
+
+        // runs the given page query with the given key parameters, returning the number of rows read
+        private int readRows(String key, int limit, RollbackRecordBatch batch, long... keyParams)
+                throws SQLException {
+            PreparedStatement query = connHolder.getStatement(key, arena.getId());
+            int i = 1;
+            query.setInt(i++, type.ordinal());
+            query.setInt(i++, afterId);
+            for (long param : keyParams) {
+                query.setLong(i++, param);
+            }
+            query.setInt(i, limit);
+
+            int rows = 0;
+            try (ResultSet rs = query.executeQuery()) {
+                while (rs.next()) {
+                    rows++;
+                    lastChunkX = rs.getInt(COLUMN_X) >> 4;
+                    lastChunkZ = rs.getInt(COLUMN_Z) >> 4;
+                    lastId = rs.getInt(COLUMN_ID);
+                    if (batch != null) {
+                        readRecord(rs, batch);
+                    } else {
+                        RollbackRecord record = readRecord(rs, stateMap);
+                        if (record != null) {
+                            buffer.add(record);
+                        }
+                    }
+                }
+            }
+            return rows;
+        }
+
+        @Override
+        public void close() {
+            buffer.clear();
+            exhausted = true;
+        }
+
+    }
+
+}
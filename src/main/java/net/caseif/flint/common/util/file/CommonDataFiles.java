@@ -48,7 +48,15 @@ public class CommonDataFiles {
     public static final MinigameDataFile ARENA_STORE = new MinigameDataFile("arenas.json");
     public static final MinigameDataFile LOBBY_STORE = new MinigameDataFile("lobbies.json");
     public static final MinigameDataFile ROLLBACK_STORE = new MinigameDataFile("rollback.db");
-    public static final MinigameDataFile ROLLBACK_STATE_STORE = new MinigameDataFile("rollback_state.json");
+    public static final MinigameDataFile ROLLBACK_STATE_DIR = new MinigameDataFile("rollback_states", true);
+    public static final MinigameDataFile ROLLBACK_MAPPED_DIR = new MinigameDataFile("rollback_mapped", true);
+    public static final MinigameDataFile ROLLBACK_SNAPSHOT_DIR = new MinigameDataFile("rollback_snapshots", true);
+    /**
+     * The legacy JSON state store, which is migrated to per-arena state logs
+     * as arenas are loaded.
+     */
+    public static final MinigameDataFile ROLLBACK_STATE_STORE
+            = new MinigameDataFile("rollback_state.json", false, false);
 
     static void register(DataFile dataFile) {
         FILES.add(dataFile);
@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A distribution of durations, recorded in nanoseconds.
+ *
+ * <p>Durations are counted in buckets whose bounds are successive powers of
+ * two, so recording is lock-free and uses constant memory, while percentiles
+ * are accurate to within a factor of two.</p>
+ *
+ * @author Max Roncacé
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    // bucket i holds durations d where 2^(i-1) <= d < 2^i, with bucket 0 holding zero
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+    }
+
+    /**
+     * Records the given duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void update(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long prev;
+        while (nanos > (prev = max.get()) && !max.compareAndSet(prev, nanos)) {
+            // retry until we either set the max or it's been raised past us
+        }
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return The number of durations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the total of all recorded durations in the given unit.
+     *
+     * @param unit The unit to return the total in
+     * @return The total of all recorded durations
+     */
+    public long getTotal(TimeUnit unit) {
+        return unit.convert(sum.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the mean of all recorded durations in the given unit.
+     *
+     * @param unit The unit to return the mean in
+     * @return The mean duration, or {@code 0} if none have been recorded
+     */
+    public double getMean(TimeUnit unit) {
+        long count = getCount();
+        return count > 0 ? (double) sum.get() / count / TimeUnit.NANOSECONDS.convert(1, unit) : 0;
+    }
+
+    /**
+     * Returns the longest recorded duration in the given unit.
+     *
+     * @param unit The unit to return the duration in
+     * @return The longest recorded duration
+     */
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns an upper bound for the given percentile of recorded durations.
+     *
+     * @param percentile The percentile, between {@code 0} and {@code 1}
+     * @param unit The unit to return the duration in
+     * @return An upper bound for the duration at the given percentile, which
+     *     is at most twice the actual value, or {@code 0} if no durations have
+     *     been recorded
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        long target = (long) Math.ceil(getCount() * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target && seen > 0) {
+                long bound = i == 0 ? 0 : (1L << i) - 1;
+                return unit.convert(Math.min(bound, max.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2016, Max Roncace <me@caseif.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.caseif.flint.common.util.metrics;
+
+import net.caseif.flint.common.CommonCore;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the {@link Counter}s, {@link Histogram}s and {@link Gauge}s
+ * maintained by Flint, made available via {@link CommonCore#getMetrics()} so
+ * that platforms may export them.
+ *
+ * <p>Metric names are dot-separated, beginning with the subsystem they
+ * pertain to (e.g. {@code rollback.popRollbacks}). Metrics pertaining to a
+ * single arena are further qualified by the plugin and arena ID.</p>
+ *
+ * @author Max Roncacé
+ */
+public class MetricRegistry {
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private volatile long slowThreshold;
+
+    /**
+     * Gets the {@link Counter} with the given name, creating it if necessary.
+     *
+     * @param name The name of the counter
+     * @return The {@link Counter} with the given name
+     */
+    public Counter getCounter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter newCounter = new Counter();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Gets the {@link Histogram} with the given name, creating it if
+     * necessary.
+     *
+     * @param name The name of the histogram
+     * @return The {@link Histogram} with the given name
+     */
+    public Histogram getHistogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers the given {@link Gauge} under the given name, replacing any
+     * gauge previously registered under it.
+     *
+     * @param name The name of the gauge
+     * @param gauge The gauge to register
+     */
+    public void registerGauge(String name, Gauge gauge) {
+        Preconditions.checkNotNull(gauge, "gauge");
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Returns an immutable snapshot of all registered {@link Counter}s.
+     *
+     * @return All registered counters, sorted by name
+     */
+    public ImmutableSortedMap<String, Counter> getCounters() {
+        return ImmutableSortedMap.copyOf(counters);
+    }
+
+    /**
+     * Returns an immutable snapshot of all registered {@link Histogram}s.
+     *
+     * @return All registered histograms, sorted by name
+     */
+    public ImmutableSortedMap<String, Histogram> getHistograms() {
+        return ImmutableSortedMap.copyOf(histograms);
+    }
+
+    /**
+     * Returns an immutable snapshot of all registered {@link Gauge}s.
+     *
+     * @return All registered gauges, sorted by name
+     */
+    public ImmutableSortedMap<String, Gauge> getGauges() {
+        return ImmutableSortedMap.copyOf(gauges);
+    }
+
+    /**
+     * Removes all metrics whose names begin with the given prefix, e.g. once
+     * the arena they pertain to has been unloaded.
+     *
+     * @param prefix The prefix of the metrics to remove
+     */
+    public void removeAll(String prefix) {
+        removeAll(counters, prefix);
+        removeAll(histograms, prefix);
+        removeAll(gauges, prefix);
+    }
+
+    private static void removeAll(Map<String, ?> metrics, String prefix) {
+        Iterator<String> it = metrics.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the duration in milliseconds beyond which operations timed via
+     * {@link #recordTime(String, String, long)} are logged as slow.
+     *
+     * @return The slow operation threshold in milliseconds, or {@code 0} if
+     *     slow operations are not logged
+     */
+    public long getSlowThreshold() {
+        return TimeUnit.NANOSECONDS.toMillis(slowThreshold);
+    }
+
+    /**
+     * Sets the duration in milliseconds beyond which operations timed via
+     * {@link #recordTime(String, String, long)} are logged as slow.
+     *
+     * @param millis The slow operation threshold in milliseconds, or
+     *     {@code 0} to disable logging of slow operations
+     */
+    public void setSlowThreshold(long millis) {
+        Preconditions.checkArgument(millis >= 0, "Threshold must be non-negative");
+        this.slowThreshold = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Records the time elapsed since the given instant in the
+     * {@link Histogram} with the given name, logging a warning if it exceeds
+     * the slow operation threshold.
+     *
+     * @param name The name of the histogram
+     * @param subject A description of what the operation pertained to, for
+     *     use in the warning
+     * @param startNanos The value of {@link System#nanoTime()} when the
+     *     operation began
+     */
+    public void recordTime(String name, String subject, long startNanos) {
+        recordTime(getHistogram(name), name, subject, startNanos);
+    }
+
+    /**
+     * Records the time elapsed since the given instant in the given
+     * {@link Histogram}, logging a warning if it exceeds the slow operation
+     * threshold. This avoids looking up the histogram for operations which are
+     * timed frequently.
+     *
+     * @param histogram The histogram to record the time in
+     * @param name The name of the histogram
+     * @param subject A description of what the operation pertained to, for
+     *     use in the warning
+     * @param startNanos The value of {@link System#nanoTime()} when the
+     *     operation began
+     */
+    public void recordTime(Histogram histogram, String name, String subject, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        histogram.update(elapsed);
+        long threshold = slowThreshold;
+        if (threshold > 0 && elapsed > threshold) {
+            CommonCore.logWarning("Slow operation: " + name + " took " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+                    + "ms for " + subject);
+        }
+    }
+
+}